@@ -5,6 +5,9 @@ module net.pincette.csstoxslfo {
   requires net.pincette.xmlfilter;
   requires net.pincette.sac;
   requires java.logging;
+  requires java.management;
+  requires jdk.jfr;
+  requires jdk.httpserver;
   requires org.jfree.jfreechart;
   requires net.pincette.tagsoup;
 
@@ -0,0 +1,243 @@
+package net.pincette.csstoxslfo;
+
+import static java.lang.System.nanoTime;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static net.pincette.util.Util.tryToGetRethrow;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Converts a batch of documents with a pool of threads, which share one {@link ConverterEngine}.
+ * The documents are given by a directory, a glob pattern or a file with a path on every line. The
+ * XSL-FO of a document goes to a file in the output directory with the same relative path and the
+ * extension <code>.fo</code>. A line with the time or the error is reported for every document. A
+ * failed document doesn't stop the batch.
+ *
+ * @author Werner Donné
+ */
+class Batch {
+  private static final String GLOB_CHARACTERS = "*?[{";
+
+  private Batch() {}
+
+  private static boolean convert(
+      final ConverterEngine engine,
+      final Path document,
+      final Path output,
+      final PrintStream report) {
+    final long start = nanoTime();
+
+    try {
+      Files.createDirectories(output.getParent());
+
+      try (final InputStream in = Files.newInputStream(document);
+          final OutputStream out = new BufferedOutputStream(Files.newOutputStream(output))) {
+        engine.convert(in, document.toUri().toURL(), out);
+      }
+
+      report.println(document + "\t" + millis(start) + " ms");
+
+      return true;
+    } catch (Exception e) {
+      tryToGetRethrow(() -> Files.deleteIfExists(output));
+      report.println(document + "\t" + millis(start) + " ms\t" + e);
+
+      return false;
+    }
+  }
+
+  /**
+   * Returns the documents of the source, which can be a directory, a glob pattern or a file with a
+   * path on every line.
+   */
+  static List<Path> documents(final String source) throws IOException {
+    if (isGlob(source)) {
+      return glob(source);
+    }
+
+    final Path path = Path.of(source);
+
+    if (Files.isDirectory(path)) {
+      try (final Stream<Path> paths = Files.list(path)) {
+        return paths.filter(Files::isRegularFile).sorted().toList();
+      }
+    }
+
+    try (final Stream<String> lines = Files.lines(path)) {
+      return lines.map(String::trim).filter(line -> !line.isEmpty()).map(Path::of).toList();
+    }
+  }
+
+  /** The directory part before the first wildcard is where the search starts. */
+  private static List<Path> glob(final String pattern) throws IOException {
+    final int separator = pattern.lastIndexOf('/', wildcard(pattern));
+    final Path root = Path.of(separator != -1 ? pattern.substring(0, separator + 1) : ".");
+    final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+    try (final Stream<Path> paths = Files.walk(root)) {
+      return paths
+          .filter(Files::isRegularFile)
+          .filter(p -> matcher.matches(separator != -1 ? p : root.relativize(p)))
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static boolean isGlob(final String source) {
+    return wildcard(source) != -1;
+  }
+
+  private static long millis(final long start) {
+    return NANOSECONDS.toMillis(nanoTime() - start);
+  }
+
+  private static Path outputFile(final Path relative, final Path outputDirectory) {
+    final String name = relative.getFileName().toString();
+    final int extension = name.lastIndexOf('.');
+
+    return outputDirectory
+        .resolve(relative)
+        .resolveSibling((extension > 0 ? name.substring(0, extension) : name) + ".fo");
+  }
+
+  /**
+   * Maps every document to its output file. The path of the document relative to the deepest
+   * directory that contains all the documents is kept below the output directory, so documents
+   * with the same name in different directories don't overwrite each other. Documents that would
+   * still go to the same file, such as <code>a.html</code> and <code>a.xml</code>, are refused
+   * before anything is converted.
+   */
+  private static Map<Path, Path> outputs(final List<Path> documents, final Path outputDirectory)
+      throws IOException {
+    final List<Path> absolute =
+        documents.stream().map(d -> d.toAbsolutePath().normalize()).toList();
+    final Path root = root(absolute);
+    final Map<Path, Path> result = new LinkedHashMap<>();
+    final Map<Path, Path> seen = new HashMap<>();
+
+    for (int i = 0; i < documents.size(); ++i) {
+      final Path output =
+          outputFile(
+              root != null ? root.relativize(absolute.get(i)) : absolute.get(i).getFileName(),
+              outputDirectory);
+      final Path previous = seen.putIfAbsent(output, documents.get(i));
+
+      if (previous != null) {
+        throw new IOException(
+            "The documents "
+                + previous
+                + " and "
+                + documents.get(i)
+                + " would both be written to "
+                + output);
+      }
+
+      result.put(documents.get(i), output);
+    }
+
+    return result;
+  }
+
+  /**
+   * Returns the deepest directory that contains all the absolute paths, or <code>null</code> when
+   * there is none, which can happen on a file system with several roots.
+   */
+  private static Path root(final List<Path> absolute) {
+    Path result = absolute.isEmpty() ? null : absolute.get(0).getParent();
+
+    for (final Path path : absolute) {
+      while (result != null && !path.startsWith(result)) {
+        result = result.getParent();
+      }
+    }
+
+    return result;
+  }
+
+  /**
+   * Converts the documents of the source with <code>threads</code> threads. It returns the number
+   * of documents that failed.
+   */
+  static int run(
+      final Configuration configuration,
+      final String source,
+      final Path outputDirectory,
+      final int threads,
+      final PrintStream report)
+      throws IOException {
+    final List<Path> documents = documents(source);
+    final Map<Path, Path> outputs = outputs(documents, outputDirectory);
+    final ConverterEngine engine = new ConverterEngine(configuration, threads);
+    final ExecutorService executor = newFixedThreadPool(threads);
+    final long start = nanoTime();
+
+    Files.createDirectories(outputDirectory);
+
+    try {
+      final long failures =
+          executor
+              .invokeAll(
+                  documents.stream().map(d -> task(engine, d, outputs.get(d), report)).toList())
+              .stream()
+              .map(Batch::succeeded)
+              .filter(succeeded -> !succeeded)
+              .count();
+
+      report.println(
+          "# "
+              + documents.size()
+              + " documents\t"
+              + failures
+              + " failures\t"
+              + millis(start)
+              + " ms");
+
+      return (int) failures;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static boolean succeeded(final Future<Boolean> result) {
+    return tryToGetRethrow(result::get).orElse(false);
+  }
+
+  private static Callable<Boolean> task(
+      final ConverterEngine engine,
+      final Path document,
+      final Path output,
+      final PrintStream report) {
+    return () -> convert(engine, document, output, report);
+  }
+
+  private static int wildcard(final String s) {
+    for (int i = 0; i < s.length(); ++i) {
+      if (GLOB_CHARACTERS.indexOf(s.charAt(i)) != -1) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+}
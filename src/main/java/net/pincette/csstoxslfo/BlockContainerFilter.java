@@ -96,6 +96,12 @@ class BlockContainerFilter extends XMLFilterImpl {
     }
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    stack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -2,6 +2,7 @@ package net.pincette.csstoxslfo;
 
 import static java.lang.Boolean.TRUE;
 import static java.lang.Integer.parseInt;
+import static java.util.Optional.ofNullable;
 import static net.pincette.csstoxslfo.Constants.XHTML;
 import static net.pincette.csstoxslfo.Constants.XSLFO;
 import static net.pincette.util.Util.isInteger;
@@ -20,11 +21,17 @@ import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
- * Collects the bookmark-tree and puts it at the end of the document.
+ * Collects the bookmark-tree and puts it at the end of the document. When the label depends on the
+ * contents of the element, it comes in a trailing <code>css:bookmark-label</code> element, which is
+ * removed.
  *
  * @author Werner Donné
  */
 class BookmarkFilter extends XMLFilterImpl {
+  private static final String BOOKMARK_LABEL = "bookmark-label";
+
+  private final Deque<Bookmark> bookmarks = new ArrayDeque<>();
+  private boolean label;
   private final Deque<Boolean> stack = new ArrayDeque<>();
   private final List<Bookmark> tree = new ArrayList<>();
 
@@ -47,6 +54,14 @@ class BookmarkFilter extends XMLFilterImpl {
   @Override
   public void endElement(final String namespaceURI, final String localName, final String qName)
       throws SAXException {
+    if (label) {
+      label = false;
+
+      return;
+    }
+
+    bookmarks.pop();
+
     if (TRUE.equals(stack.pop()) && !tree.isEmpty()) {
       // Put it at the end of the body region, or it will be lost.
       writeTree();
@@ -62,13 +77,29 @@ class BookmarkFilter extends XMLFilterImpl {
     return level == 1 ? list : tryLower.get();
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    bookmarks.clear();
+    label = false;
+    stack.clear();
+    tree.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
       throws SAXException {
+    if (Constants.CSS.equals(namespaceURI) && BOOKMARK_LABEL.equals(localName)) {
+      ofNullable(bookmarks.peek()).ifPresent(b -> b.label = atts.getValue(Constants.CSS, "value"));
+      label = true;
+
+      return;
+    }
+
     final Bookmark bookmark = new Bookmark();
 
-    bookmark.label = atts.getValue(Constants.CSS, "bookmark-label");
+    bookmark.label = atts.getValue(Constants.CSS, BOOKMARK_LABEL);
     bookmark.target = atts.getValue(Constants.CSS, "bookmark-target");
 
     if (bookmark.label != null && bookmark.target == null) {
@@ -91,6 +122,7 @@ class BookmarkFilter extends XMLFilterImpl {
     }
 
     super.startElement(namespaceURI, localName, qName, atts);
+    bookmarks.push(bookmark);
     stack.push("body".equals(atts.getValue(Constants.CSS, "region")));
   }
 
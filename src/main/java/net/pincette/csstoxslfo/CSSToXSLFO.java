@@ -1,29 +1,33 @@
 package net.pincette.csstoxslfo;
 
 import static java.lang.System.exit;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.stream;
 import static java.util.Optional.ofNullable;
-import static net.pincette.csstoxslfo.Util.addMerge;
-import static net.pincette.csstoxslfo.Util.createPreprocessorFilter;
+import static net.pincette.csstoxslfo.Util.createParentFilter;
 import static net.pincette.csstoxslfo.Util.printCommonUsage;
 import static net.pincette.csstoxslfo.Util.printUserAgentParameters;
+import static net.pincette.util.Collections.set;
 import static net.pincette.util.Util.tryToDoRethrow;
 import static net.pincette.util.Util.tryToGetRethrow;
 import static net.pincette.xml.sax.Util.newSAXTransformerFactory;
 
 import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import net.pincette.csstoxslfo.util.EscapedXMLStreamWriter;
 import net.pincette.util.ArgsBuilder;
 import net.pincette.util.Collections;
-import net.pincette.xml.sax.ProtectEventHandlerFilter;
 import org.xml.sax.InputSource;
 import org.xml.sax.XMLFilter;
 
@@ -33,6 +37,8 @@ import org.xml.sax.XMLFilter;
  * @author Werner Donné
  */
 public class CSSToXSLFO {
+  private static final Set<String> PENDING =
+      set("-batch", "-debug-filters", "-fo", "-out", "-profile", "-stats", "-threads");
   private static final String PKGS = "java.protocol.handler.pkgs";
   private static final String PROTOCOL = "net.pincette.csstoxslfo.protocol";
 
@@ -78,37 +84,76 @@ public class CSSToXSLFO {
     }
   }
 
+  private static void batch(final Map<String, String> args, final Configuration configuration) {
+    if (!args.containsKey("-out")) {
+      usage(1);
+    }
+
+    final int failures =
+        tryToGetRethrow(
+                () ->
+                    Batch.run(
+                        configuration,
+                        args.get("-batch"),
+                        Path.of(args.get("-out")),
+                        ofNullable(args.get("-threads"))
+                            .map(Integer::parseInt)
+                            .orElseGet(() -> Runtime.getRuntime().availableProcessors()),
+                        System.out))
+            .orElse(1);
+
+    if (failures > 0) {
+      exit(1);
+    }
+  }
+
+  private static void convert(final Map<String, String> args, final Configuration configuration) {
+    tryToDoRethrow(
+        () ->
+            new CSSToXSLFO()
+                .withConfiguration(configuration)
+                .withDebug(args.containsKey("-debug"))
+                .withIncludeClassNames(
+                    ofNullable(args.get("-debug-filters"))
+                        .map(f -> f.split(","))
+                        .orElseGet(() -> new String[0]))
+                .withIn(
+                    getUrl(args)
+                        .map(
+                            url -> {
+                              setBaseUrl(configuration, url);
+                              return tryToGetRethrow(url::openStream).orElse(null);
+                            })
+                        .orElse(System.in))
+                .withOut(
+                    ofNullable(args.get("-fo"))
+                        .flatMap(
+                            f -> tryToGetRethrow(() -> (OutputStream) new FileOutputStream(f)))
+                        .orElse(System.out))
+                .run());
+  }
+
   @SuppressWarnings("java:S106") // Not logging.
   private static Runnable convertWithArgs(
       final Map<String, String> args, final Configuration configuration) {
     return args.containsKey("-h")
         ? () -> usage(0)
-        : () ->
-            tryToDoRethrow(
-                () ->
-                    new CSSToXSLFO()
-                        .withConfiguration(configuration)
-                        .withDebug(args.containsKey("-debug"))
-                        .withIncludeClassNames(
-                            ofNullable(args.get("-debug-filters"))
-                                .map(f -> f.split(","))
-                                .orElseGet(() -> new String[0]))
-                        .withIn(
-                            getUrl(args)
-                                .map(
-                                    url -> {
-                                      setBaseUrl(configuration, url);
-                                      return tryToGetRethrow(url::openStream).orElse(null);
-                                    })
-                                .orElse(System.in))
-                        .withOut(
-                            ofNullable(args.get("-fo"))
-                                .flatMap(
-                                    f ->
-                                        tryToGetRethrow(
-                                            () -> (OutputStream) new FileOutputStream(f)))
-                                .orElse(System.out))
-                        .run());
+        : () -> {
+          ofNullable(args.get("-profile"))
+              .ifPresent(f -> configuration.setRuleProfile(new RuleProfile()));
+          ofNullable(args.get("-stats"))
+              .ifPresent(f -> configuration.setConversionStats(new ConversionStats()));
+          if (args.containsKey("-batch")) {
+            batch(args, configuration);
+          } else {
+            convert(args, configuration);
+          }
+
+          ofNullable(args.get("-profile"))
+              .ifPresent(f -> writeProfile(configuration.getRuleProfile(), f));
+          ofNullable(args.get("-stats"))
+              .ifPresent(f -> writeStats(configuration.getConversionStats(), f));
+        };
   }
 
   private static Optional<URL> getUrl(final Map<String, String> args) {
@@ -123,7 +168,7 @@ public class CSSToXSLFO {
       stream(configuration.remainingArgs())
           .reduce(
               new ArgsBuilder(),
-              (b, a) -> a.equals("-fo") || a.equals("-debug-filters") ? b.addPending(a) : b.add(a),
+              (b, a) -> PENDING.contains(a) ? b.addPending(a) : b.add(a),
               (b1, b2) -> b1)
           .build()
           .map(a -> convertWithArgs(a, configuration))
@@ -156,23 +201,48 @@ public class CSSToXSLFO {
     System.err.println("  [-debug]: debug mode");
     System.err.println("  [-debug-filters]: class names of filters in debug mode");
     System.err.println("  [-fo filename]: output file, uses stdout by default");
+    System.err.println("  [-profile filename]: write a profile of the rule matching to the file");
+    System.err.println("  [-stats filename]: write the time and events per filter to the file");
+    System.err.println(
+        "  [-batch directory_glob_or_list_file]: convert several documents, requires -out");
+    System.err.println("  [-out directory]: the output directory for -batch");
+    System.err.println("  [-threads count]: number of threads for -batch (default: processors)");
     System.err.println();
     printUserAgentParameters(System.err);
     exit(code);
   }
 
-  public void run() throws IOException {
-    try {
-      XMLFilter parent = new ProtectEventHandlerFilter(true, true, addMerge(data, configuration));
+  private static void writeProfile(final RuleProfile profile, final String filename) {
+    tryToDoRethrow(
+        () -> {
+          try (final Writer writer = new FileWriter(filename, UTF_8)) {
+            profile.write(writer);
+          }
+        });
+  }
 
-      if (configuration.getPreprocessors() != null) {
-        parent = createPreprocessorFilter(configuration.getPreprocessors(), parent);
-      }
+  private static void writeStats(final ConversionStats stats, final String filename) {
+    tryToDoRethrow(
+        () -> {
+          try (final Writer writer = new FileWriter(filename, UTF_8)) {
+            stats.write(writer);
+          }
+        });
+  }
 
+  /**
+   * Runs the conversion.
+   *
+   * @return the stats of the configuration, which are <code>null</code> when they are not turned
+   *     on.
+   * @throws IOException when the conversion fails.
+   */
+  public ConversionStats run() throws IOException {
+    try {
       final XMLFilter filter =
           new CSSToXSLFOFilter(
               configuration,
-              parent,
+              createParentFilter(data, configuration),
               debug,
               ofNullable(includeClassNames).map(Collections::set).orElse(null));
       final InputSource source = new InputSource(in);
@@ -186,6 +256,8 @@ public class CSSToXSLFO {
       handler.setResult(new StreamResult(new EscapedXMLStreamWriter(out)));
       filter.setContentHandler(handler);
       filter.parse(source);
+
+      return configuration.getConversionStats();
     } catch (IOException e) {
       throw e;
     } catch (Exception e) {
@@ -1,21 +1,21 @@
 package net.pincette.csstoxslfo;
 
+import static net.pincette.csstoxslfo.StageFilter.instrument;
 import static net.pincette.csstoxslfo.Util.createPostProjectionFilter;
 import static net.pincette.util.Util.isUri;
 import static net.pincette.util.Util.tryToGetRethrow;
 import static net.pincette.xml.sax.Util.newSAXTransformerFactory;
-import static net.pincette.xml.sax.Util.newTemplatesHandler;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.Objects;
 import java.util.Set;
+import java.util.stream.Stream;
 import javax.xml.transform.Templates;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.stream.StreamSource;
 import net.pincette.util.Util;
 import net.pincette.xml.sax.FilterOfFilters;
-import net.pincette.xml.sax.TransformerHandlerFilter;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.DTDHandler;
 import org.xml.sax.EntityResolver;
@@ -27,20 +27,25 @@ import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
- * A filter that accepts an XML document and produces an XSL-FO document.
+ * A filter that accepts an XML document and produces an XSL-FO document. It can be used for
+ * several documents, one after the other.
  *
  * @author Werner Donné
  */
 public class CSSToXSLFOFilter extends XMLFilterImpl {
-  private static SAXTransformerFactory factory;
+  private static final String OUTPUT = "Output";
+  private static final String PIPE = "Pipe";
+  private static final SAXTransformerFactory factory = createFactory();
   private static final Templates templates = loadStyleSheet();
 
   static {
     CSSToXSLFO.addDataProtocolHandler();
   }
 
+  private ChunkedTemplatesFilter chunked;
   private final Configuration configuration;
   private XMLFilterImpl filter;
+  private PipeFilter pipe;
 
   public CSSToXSLFOFilter(final Configuration configuration) {
     this(configuration, false);
@@ -75,52 +80,81 @@ public class CSSToXSLFOFilter extends XMLFilterImpl {
     setParent(parent);
   }
 
+  private static SAXTransformerFactory createFactory() {
+    final SAXTransformerFactory result = newSAXTransformerFactory();
+
+    result.setURIResolver(
+        (href, base) ->
+            Util.tryToGet(
+                    () ->
+                        new StreamSource(
+                            base != null && isUri(base)
+                                ? new URL(new URL(base), href).toString()
+                                : new URL(CSSToXSLFOFilter.class.getResource("style/css.xsl"), href)
+                                    .toString()))
+                .orElse(null));
+
+    return result;
+  }
+
   private static Templates loadStyleSheet() {
     return tryToGetRethrow(
-            () -> {
-              factory = newSAXTransformerFactory();
-
-              factory.setURIResolver(
-                  (href, base) ->
-                      Util.tryToGet(
-                              () ->
-                                  new StreamSource(
-                                      base != null && isUri(base)
-                                          ? new URL(new URL(base), href).toString()
-                                          : new URL(
-                                                  CSSToXSLFOFilter.class.getResource(
-                                                      "style/css.xsl"),
-                                                  href)
-                                              .toString()))
-                          .orElse(null));
-
-              return factory.newTemplates(
-                  new StreamSource(
-                      Objects.requireNonNull(CSSToXSLFOFilter.class.getResource("style/css.xsl"))
-                          .toString()));
-            })
+            () ->
+                factory.newTemplates(
+                    new StreamSource(
+                        Objects.requireNonNull(
+                                CSSToXSLFOFilter.class.getResource("style/css.xsl"))
+                            .toString())))
         .orElse(null);
   }
 
+  /** A pipe that is still busy after the timeout may still be writing to the spool. */
+  private boolean abandonPipe() {
+    return pipe == null || pipe.abandon();
+  }
+
+  private void discardSpool() {
+    if (chunked != null) {
+      chunked.discard();
+    }
+  }
+
   private void initialize(final boolean debug, final Set<String> includeClassNames) {
     final Context context = new Context();
+    final ConversionStats stats = configuration.getConversionStats();
 
+    chunked =
+        configuration.getChunkedTransformationMode()
+            ? new ChunkedTemplatesFilter(templates, factory, configuration)
+            : null;
+    pipe = configuration.getPipelinedMode() ? new PipeFilter() : null;
+
+    // The stages are registered in the order of the chain.
     filter =
         new FilterOfFilters(
-            new XMLFilter[] {
-              new ProjectorFilter(configuration, context),
-              new FOMarkerFilter(),
-              new ChartsFilter(),
-              createPostProjectionFilter(configuration, debug, includeClassNames).get(),
-              new PageSetupFilter(configuration, context, debug, includeClassNames),
-              new TransformerHandlerFilter(
-                  tryToGetRethrow(
-                          () ->
-                              newTemplatesHandler(
-                                  templates, configuration.getParameters(), factory))
-                      .orElse(null)),
-              new SpaceCorrectionFilter()
-            },
+            Stream.of(
+                    instrument(new ProjectorFilter(configuration, context), stats),
+                    instrument(new FOMarkerFilter(), stats),
+                    instrument(new ChartsFilter(), stats),
+                    createPostProjectionFilter(configuration, stats, debug, includeClassNames)
+                        .get(),
+                    instrument(
+                        new PageSetupFilter(configuration, context, debug, includeClassNames),
+                        stats),
+                    // The stages after the pipe run on another thread.
+                    pipe != null && stats != null
+                        ? new StageFilter(stats.stage(PIPE).lastOnThread())
+                        : null,
+                    pipe,
+                    instrument(
+                        chunked != null
+                            ? chunked
+                            : new TemplatesFilter(templates, factory, configuration),
+                        stats),
+                    instrument(new SpaceCorrectionFilter(), stats),
+                    stats != null ? new StageFilter(stats.stage(OUTPUT)) : null)
+                .filter(Objects::nonNull)
+                .toArray(XMLFilter[]::new),
             debug,
             includeClassNames);
 
@@ -154,13 +188,24 @@ public class CSSToXSLFOFilter extends XMLFilterImpl {
     return filter.getErrorHandler();
   }
 
+  /**
+   * When a stage before the pipe fails, the document never reaches its end, so the other thread of
+   * the pipe is stopped here. The page sequences that were spooled in chunked mode are deleted
+   * after that.
+   */
   @Override
   public void parse(final InputSource input) throws IOException, SAXException {
     if (getConfiguration().getBaseUrl() == null && input.getSystemId() != null) {
       getConfiguration().setBaseUrl(new URL(input.getSystemId()));
     }
 
-    filter.parse(input);
+    try {
+      filter.parse(input);
+    } finally {
+      if (abandonPipe()) {
+        discardSpool();
+      }
+    }
   }
 
   @Override
@@ -169,7 +214,13 @@ public class CSSToXSLFOFilter extends XMLFilterImpl {
       getConfiguration().setBaseUrl(new URL(systemId));
     }
 
-    filter.parse(systemId);
+    try {
+      filter.parse(systemId);
+    } finally {
+      if (abandonPipe()) {
+        discardSpool();
+      }
+    }
   }
 
   @Override
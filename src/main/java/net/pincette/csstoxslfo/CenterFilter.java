@@ -101,6 +101,12 @@ class CenterFilter extends XMLFilterImpl {
         && AUTO.equals(atts.getValue(CSS, MARGIN_RIGHT));
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    stack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -0,0 +1,137 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.logging.Level.WARNING;
+import static java.util.stream.Collectors.joining;
+import static net.pincette.csstoxslfo.Util.LOGGER;
+import static net.pincette.csstoxslfo.Util.selectorText;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.function.Function;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+
+/**
+ * Runs the {@link IndexMatcher} and the DFA {@link Matcher} side by side and logs a warning for
+ * every element for which they find different declarations. The result of the DFA is returned. It
+ * is used in rule index mode when the system property <code>net.pincette.csstoxslfo.checkRuleIndex
+ * </code> is set, which also makes the style sheets generate their DFA.
+ *
+ * @author Werner Donné
+ */
+class CheckingMatcher implements StyleMatcher {
+  static final boolean ENABLED =
+      System.getProperty("net.pincette.csstoxslfo.checkRuleIndex") != null;
+
+  private final StyleMatcher checked;
+  private final Deque<String> elements = new ArrayDeque<>();
+  private final StyleMatcher reference;
+
+  CheckingMatcher(final StyleMatcher checked, final StyleMatcher reference) {
+    this.checked = checked;
+    this.reference = reference;
+  }
+
+  private static String difference(final Collection<Rule> rules, final Collection<Rule> other) {
+    return rules.stream()
+        .filter(rule -> !other.contains(rule))
+        .map(rule -> selectorText(rule.getSelector()) + " {" + rule.getProperty().getName() + "}")
+        .collect(joining(", "));
+  }
+
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    checked.characters(ch, start, length);
+    reference.characters(ch, start, length);
+  }
+
+  private Collection<Rule> compare(
+      final Function<StyleMatcher, Collection<Rule>> select, final String kind) {
+    final Collection<Rule> expected = select.apply(reference);
+    final Collection<Rule> actual = select.apply(checked);
+
+    if (!expected.equals(actual)) {
+      LOGGER.log(
+          WARNING,
+          "The rule index finds other {0} for {1}. Missing: {2}. Extra: {3}.",
+          new Object[] {
+            kind, elements.peek(), difference(expected, actual), difference(actual, expected)
+          });
+    }
+
+    return expected;
+  }
+
+  public void endDocument() throws SAXException {
+    checked.endDocument();
+    reference.endDocument();
+  }
+
+  public void endElement(final String namespaceURI, final String localName, final String qName)
+      throws SAXException {
+    checked.endElement(namespaceURI, localName, qName);
+    reference.endElement(namespaceURI, localName, qName);
+    elements.pop();
+  }
+
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    checked.endPrefixMapping(prefix);
+    reference.endPrefixMapping(prefix);
+  }
+
+  public String getCurrentLanguage() {
+    return reference.getCurrentLanguage();
+  }
+
+  public void ignorableWhitespace(final char[] ch, final int start, final int length)
+      throws SAXException {
+    checked.ignorableWhitespace(ch, start, length);
+    reference.ignorableWhitespace(ch, start, length);
+  }
+
+  public Collection<Rule> matchingPseudoRules() {
+    return compare(StyleMatcher::matchingPseudoRules, "pseudo rules");
+  }
+
+  public Collection<Rule> matchingRules() {
+    return compare(StyleMatcher::matchingRules, "rules");
+  }
+
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    checked.processingInstruction(target, data);
+    reference.processingInstruction(target, data);
+  }
+
+  public void setDocumentLocator(final Locator locator) {
+    checked.setDocumentLocator(locator);
+    reference.setDocumentLocator(locator);
+  }
+
+  public void skippedEntity(final String name) throws SAXException {
+    checked.skippedEntity(name);
+    reference.skippedEntity(name);
+  }
+
+  public void startDocument() throws SAXException {
+    elements.clear();
+    checked.startDocument();
+    reference.startDocument();
+  }
+
+  public void startElement(
+      final String namespaceURI,
+      final String localName,
+      final String qName,
+      final Attributes atts)
+      throws SAXException {
+    elements.push(qName);
+    checked.startElement(namespaceURI, localName, qName, atts);
+    reference.startElement(namespaceURI, localName, qName, atts);
+  }
+
+  public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+    checked.startPrefixMapping(prefix, uri);
+    reference.startPrefixMapping(prefix, uri);
+  }
+}
@@ -0,0 +1,511 @@
+package net.pincette.csstoxslfo;
+
+import static java.nio.file.Files.createTempFile;
+import static java.nio.file.Files.deleteIfExists;
+import static java.nio.file.Files.newOutputStream;
+import static net.pincette.csstoxslfo.Constants.CSS;
+import static net.pincette.csstoxslfo.Constants.XSLFO;
+import static net.pincette.csstoxslfo.PageSetupFilter.PAGES;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Templates;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Runs the XSLT style sheet per <code>css:page-sequence</code> instead of on the whole document, so
+ * the transformer builds a tree for only one page sequence at a time. A page sequence is
+ * transformed in a document with the root element, the meta-data and the page definitions of the
+ * original document. Of the result only the <code>fo:page-sequence</code> is kept.
+ *
+ * <p>The bookmark tree comes at the end of the document, but it should precede the page sequences.
+ * Therefore, the transformed page sequences are spooled to a temporary file. At the end the root
+ * element, the page definitions and the bookmark tree are transformed once and the spooled page
+ * sequences are put in that result.
+ *
+ * <p>Without page definitions the style sheet puts everything in one page sequence, so then the
+ * whole document is transformed in one go.
+ *
+ * @author Werner Donné
+ */
+class ChunkedTemplatesFilter extends XMLFilterImpl {
+  private static final String BOOKMARK_TREE = "bookmark-tree";
+  private static final String PAGE_SEQUENCE = "page-sequence";
+  private static final String SPOOL = "spool";
+
+  private final SAXTransformerFactory factory;
+  private final TemplatesFilter transformer;
+  private Recording bookmarks;
+  private int bookmarksDepth;
+  private boolean chunking;
+  private int depth;
+  private boolean inPageSequence;
+  private boolean pages;
+  private boolean passThrough;
+  private final List<String> prefixes = new ArrayList<>();
+  private Recording prologue;
+  private String[] root;
+  private Spool spool;
+
+  /** The factory may be shared by several filters. It is locked while it is used. */
+  ChunkedTemplatesFilter(
+      final Templates templates,
+      final SAXTransformerFactory factory,
+      final Configuration configuration) {
+    this.factory = factory;
+    transformer = new TemplatesFilter(templates, factory, configuration);
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) throws SAXException {
+    final ContentHandler target = target();
+
+    if (target != null) {
+      target.characters(ch, start, length);
+    }
+
+    if (bookmarksDepth != -1) {
+      bookmarks.characters(ch, start, length);
+    }
+  }
+
+  private void closeChunk() throws SAXException {
+    transformer.endElement(root[0], root[1], root[2]);
+    endPrefixMappings(transformer);
+    transformer.endDocument();
+  }
+
+  /**
+   * Deletes the spooled page sequences of a document that didn't reach its end. It does nothing
+   * after a successful document.
+   */
+  void discard() {
+    if (spool != null) {
+      spool.delete();
+      spool = null;
+    }
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    if (passThrough) {
+      transformer.endDocument();
+    } else if (chunking) {
+      try {
+        spool.close();
+        transformHead();
+      } finally {
+        discard();
+      }
+    } else {
+      // There are no page sequences.
+      prologue.endDocument();
+      transformer.setContentHandler(getContentHandler());
+      prologue.replay(transformer);
+    }
+
+    bookmarks = null;
+    prologue = null;
+  }
+
+  @Override
+  public void endElement(final String namespaceURI, final String localName, final String qName)
+      throws SAXException {
+    final ContentHandler target = target();
+
+    --depth;
+
+    if (target != null) {
+      target.endElement(namespaceURI, localName, qName);
+    }
+
+    if (bookmarksDepth != -1) {
+      bookmarks.endElement(namespaceURI, localName, qName);
+
+      if (depth == bookmarksDepth) {
+        bookmarksDepth = -1;
+      }
+    }
+
+    if (inPageSequence && depth == 1) {
+      inPageSequence = false;
+      closeChunk();
+    }
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    final ContentHandler target = target();
+
+    if (target != null) {
+      target.endPrefixMapping(prefix);
+    }
+  }
+
+  private void endPrefixMappings(final ContentHandler handler) throws SAXException {
+    for (final String prefix : prefixes) {
+      handler.endPrefixMapping(prefix);
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length)
+      throws SAXException {
+    final ContentHandler target = target();
+
+    if (target != null) {
+      target.ignorableWhitespace(ch, start, length);
+    }
+  }
+
+  private void openChunk() throws SAXException {
+    if (!pages) {
+      passThrough = true;
+      transformer.setContentHandler(getContentHandler());
+    } else {
+      if (spool == null) {
+        spool = new Spool();
+      }
+
+      chunking = true;
+      inPageSequence = true;
+      transformer.setContentHandler(new PageSequences(spool.handler));
+    }
+
+    prologue.replay(transformer);
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    final ContentHandler handler = target();
+
+    if (handler != null) {
+      handler.processingInstruction(target, data);
+    }
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    bookmarks = new Recording();
+    bookmarksDepth = -1;
+    chunking = false;
+    depth = 0;
+    inPageSequence = false;
+    pages = false;
+    passThrough = false;
+    prefixes.clear();
+    prologue = new Recording();
+    root = null;
+    prologue.startDocument();
+  }
+
+  @Override
+  public void startElement(
+      final String namespaceURI, final String localName, final String qName, final Attributes atts)
+      throws SAXException {
+    if (depth == 0) {
+      root = new String[] {namespaceURI, localName, qName};
+    } else if (depth == 1 && !passThrough && CSS.equals(namespaceURI)) {
+      if (PAGE_SEQUENCE.equals(localName)) {
+        openChunk();
+      } else if (PAGES.equals(localName)) {
+        pages = true;
+      }
+    }
+
+    final ContentHandler target = target();
+
+    if (target != null) {
+      target.startElement(namespaceURI, localName, qName, atts);
+    }
+
+    if (bookmarksDepth == -1
+        && inPageSequence
+        && XSLFO.equals(namespaceURI)
+        && BOOKMARK_TREE.equals(localName)) {
+      bookmarksDepth = depth;
+    }
+
+    if (bookmarksDepth != -1) {
+      bookmarks.startElement(namespaceURI, localName, qName, atts);
+    }
+
+    ++depth;
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+    final ContentHandler target = target();
+
+    if (depth == 0 && !chunking && !passThrough) {
+      prefixes.add(prefix);
+    }
+
+    if (target != null) {
+      target.startPrefixMapping(prefix, uri);
+    }
+  }
+
+  /** Between page sequences nothing is transformed while chunking. */
+  private ContentHandler target() {
+    if (passThrough || inPageSequence) {
+      return transformer;
+    }
+
+    return chunking ? null : prologue;
+  }
+
+  private void transformHead() throws SAXException {
+    transformer.setContentHandler(new Head(getContentHandler(), spool));
+    prologue.replay(transformer);
+    bookmarks.replay(transformer);
+    closeChunk();
+  }
+
+  /** Forwards the result of the head and inserts the spooled page sequences before the end. */
+  private static class Head extends XMLFilterImpl {
+    private int depth;
+    private final Spool spool;
+
+    private Head(final ContentHandler handler, final Spool spool) {
+      this.spool = spool;
+      setContentHandler(handler);
+    }
+
+    @Override
+    public void endElement(final String namespaceURI, final String localName, final String qName)
+        throws SAXException {
+      if (--depth == 0) {
+        spool.replay(getContentHandler());
+      }
+
+      super.endElement(namespaceURI, localName, qName);
+    }
+
+    @Override
+    public void startElement(
+        final String namespaceURI,
+        final String localName,
+        final String qName,
+        final Attributes atts)
+        throws SAXException {
+      ++depth;
+      super.startElement(namespaceURI, localName, qName, atts);
+    }
+  }
+
+  /** Keeps only the <code>fo:page-sequence</code> children of the result of a chunk. */
+  private static class PageSequences extends XMLFilterImpl {
+    private int depth;
+    private boolean inPageSequence;
+    private final List<String[]> mappings = new ArrayList<>();
+
+    private PageSequences(final ContentHandler handler) {
+      setContentHandler(handler);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length)
+        throws SAXException {
+      if (inPageSequence) {
+        super.characters(ch, start, length);
+      }
+    }
+
+    @Override
+    public void endDocument() {
+      // The spool is one document.
+    }
+
+    @Override
+    public void endElement(final String namespaceURI, final String localName, final String qName)
+        throws SAXException {
+      --depth;
+
+      if (inPageSequence) {
+        super.endElement(namespaceURI, localName, qName);
+
+        if (depth == 1) {
+          inPageSequence = false;
+
+          for (final String[] mapping : mappings) {
+            super.endPrefixMapping(mapping[0]);
+          }
+        }
+      }
+    }
+
+    @Override
+    public void endPrefixMapping(final String prefix) throws SAXException {
+      if (inPageSequence) {
+        super.endPrefixMapping(prefix);
+      }
+    }
+
+    @Override
+    public void ignorableWhitespace(final char[] ch, final int start, final int length)
+        throws SAXException {
+      if (inPageSequence) {
+        super.ignorableWhitespace(ch, start, length);
+      }
+    }
+
+    @Override
+    public void processingInstruction(final String target, final String data)
+        throws SAXException {
+      if (inPageSequence) {
+        super.processingInstruction(target, data);
+      }
+    }
+
+    @Override
+    public void startDocument() {
+      // The spool is one document.
+    }
+
+    @Override
+    public void startElement(
+        final String namespaceURI,
+        final String localName,
+        final String qName,
+        final Attributes atts)
+        throws SAXException {
+      if (depth == 1 && XSLFO.equals(namespaceURI) && PAGE_SEQUENCE.equals(localName)) {
+        inPageSequence = true;
+
+        // The namespaces of the result are declared on the root element, which isn't kept.
+        for (final String[] mapping : mappings) {
+          super.startPrefixMapping(mapping[0], mapping[1]);
+        }
+      }
+
+      if (inPageSequence) {
+        super.startElement(namespaceURI, localName, qName, atts);
+      }
+
+      ++depth;
+    }
+
+    @Override
+    public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+      if (depth == 0) {
+        mappings.add(new String[] {prefix, uri});
+      } else if (inPageSequence) {
+        super.startPrefixMapping(prefix, uri);
+      }
+    }
+  }
+
+  /** The transformed page sequences, wrapped in one element. */
+  private class Spool {
+    private final Path file;
+    private final TransformerHandler handler;
+    private final OutputStream out;
+
+    private Spool() throws SAXException {
+      try {
+        file = createTempFile("csstoxslfo", ".xml");
+        out = new BufferedOutputStream(newOutputStream(file));
+
+        synchronized (factory) {
+          handler = factory.newTransformerHandler();
+        }
+
+        handler.setResult(new StreamResult(out));
+        handler.startDocument();
+        handler.startElement("", SPOOL, SPOOL, new AttributesImpl());
+      } catch (Exception e) {
+        throw new SAXException(e);
+      }
+    }
+
+    private void close() throws SAXException {
+      handler.endElement("", SPOOL, SPOOL);
+      handler.endDocument();
+
+      try {
+        out.close();
+      } catch (IOException e) {
+        throw new SAXException(e);
+      }
+    }
+
+    private void delete() {
+      try {
+        out.close();
+        deleteIfExists(file);
+      } catch (IOException e) {
+        // The temporary file is left behind.
+      }
+    }
+
+    private void replay(final ContentHandler target) throws SAXException {
+      try {
+        final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
+
+        parserFactory.setNamespaceAware(true);
+
+        final XMLReader reader = parserFactory.newSAXParser().getXMLReader();
+
+        reader.setContentHandler(new Unwrap(target));
+        reader.parse(new InputSource(file.toUri().toString()));
+      } catch (IOException | ParserConfigurationException e) {
+        throw new SAXException(e);
+      }
+    }
+  }
+
+  /** Forwards the contents of the spool element. */
+  private static class Unwrap extends XMLFilterImpl {
+    private int depth;
+
+    private Unwrap(final ContentHandler handler) {
+      setContentHandler(handler);
+    }
+
+    @Override
+    public void endDocument() {
+      // Only the contents are forwarded.
+    }
+
+    @Override
+    public void endElement(final String namespaceURI, final String localName, final String qName)
+        throws SAXException {
+      if (--depth > 0) {
+        super.endElement(namespaceURI, localName, qName);
+      }
+    }
+
+    @Override
+    public void startDocument() {
+      // Only the contents are forwarded.
+    }
+
+    @Override
+    public void startElement(
+        final String namespaceURI,
+        final String localName,
+        final String qName,
+        final Attributes atts)
+        throws SAXException {
+      if (depth++ > 0) {
+        super.startElement(namespaceURI, localName, qName, atts);
+      }
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package net.pincette.csstoxslfo;
+
+import static java.lang.System.exit;
+import static net.pincette.csstoxslfo.Util.printUserAgentParameters;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Compiles the initial style sheet into a file that can be given to {@link
+ * Configuration#setPrecompiledStyleSheet}. It contains the user agent style sheet, the rule for
+ * the <code>html-header-mark</code> parameter and the generated DFA.
+ *
+ * @author Werner Donné
+ */
+public class CompileStyleSheet {
+  private CompileStyleSheet() {}
+
+  @SuppressWarnings("squid:S106") // Not logging.
+  public static void main(final String[] args) {
+    try {
+      final Configuration configuration = new Configuration(args);
+      final String[] remaining = configuration.remainingArgs();
+
+      if (remaining.length != 1 || remaining[0].startsWith("-")) {
+        usage(remaining.length == 1 && remaining[0].equals("-h") ? 0 : 1);
+      }
+
+      // Only an eagerly generated DFA can be written.
+      configuration.setLazyDFAMode(false);
+      configuration.setRuleIndexMode(false);
+      configuration.setPrecompiledStyleSheet(null);
+
+      try (final OutputStream out = new FileOutputStream(remaining[0])) {
+        UserAgentStyleSheet.get(configuration).write(out);
+      }
+    } catch (IllegalArgumentException e) {
+      usage(1);
+    } catch (IOException e) {
+      System.err.println(e.getMessage());
+      exit(1);
+    }
+  }
+
+  @SuppressWarnings("squid:S106") // Not logging.
+  private static void usage(final int code) {
+    System.err.println("Usage: net.pincette.csstoxslfo.CompileStyleSheet");
+    System.err.println("  [-h]: show this help");
+    System.err.println("  [-uacss url_or_filename]: User Agent style sheet");
+    System.err.println("  [-screen]: turn on screen mode");
+    System.err.println("  [html-header-mark=element]");
+    System.err.println("  filename: the output file");
+    System.err.println();
+    printUserAgentParameters(System.err);
+    exit(code);
+  }
+}
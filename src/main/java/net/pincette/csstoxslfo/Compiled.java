@@ -1,6 +1,8 @@
 package net.pincette.csstoxslfo;
 
+import static java.util.Arrays.stream;
 import static java.util.Optional.ofNullable;
+import static java.util.stream.Stream.concat;
 import static net.pincette.css.sac.Selector.SAC_CHILD_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_CONDITIONAL_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_DESCENDANT_SELECTOR;
@@ -10,7 +12,11 @@ import static net.pincette.css.sac.Selector.SAC_PSEUDO_ELEMENT_SELECTOR;
 import static net.pincette.csstoxslfo.util.Util.createTreeSet;
 
 import java.io.PrintWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -18,16 +24,31 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 import net.pincette.css.sac.Condition;
 import net.pincette.css.sac.ConditionalSelector;
 import net.pincette.css.sac.DescendantSelector;
 import net.pincette.css.sac.ElementSelector;
 import net.pincette.css.sac.Selector;
 import net.pincette.css.sac.SiblingSelector;
-import net.pincette.csstoxslfo.util.DigitalTree;
+import net.pincette.csstoxslfo.Events.AutomatonGeneration;
+import net.pincette.csstoxslfo.util.IntMap;
 
 /**
- * Represents a CSS style sheet in compiled form.
+ * Represents a CSS style sheet in compiled form. The style sheet can grow after a DFA has been
+ * generated. The rules that are added after that are compiled into a separate DFA, which is called
+ * a segment. A matcher runs all segments side by side, which is the same as running the DFA of the
+ * union of all the rules, because a DFA state is the set of NFA states that are reached in the
+ * segments together.
+ *
+ * <p>In lazy mode the subset construction is driven by the matcher. A DFA state gets its
+ * transitions only when it is visited for the first time. The expanded states are memoized up to a
+ * maximum number. When that is reached the matcher continues with transient states, which amounts
+ * to NFA simulation.
  *
  * @author Werner Donné
  */
@@ -35,11 +56,84 @@ class Compiled {
   static final String ANY_ELEMENT = "*|*";
   static final String SIBLING = "SIBLING";
   private static final String EPSILON = "EPSILON";
+  // Smaller segments, such as most style sheets in documents, are generated on the calling thread.
+  private static final int PARALLEL_NFA_STATES = 1000;
   private static final boolean trace = System.getProperty("net.pincette.csstoxslfo.trace") != null;
-  DFAState startState = null;
-  private int dfaStateCounter = 0;
+  private final List<Rule> allRules = new ArrayList<>();
+  private final int cacheSize;
+  private final AtomicInteger dfaStateCounter;
+  private final boolean lazy;
+  private final Map<BitSet, DFAState> lazyStates = new ConcurrentHashMap<>();
+  private NFAStateConnection nfa;
   private int nfaStateCounter = 0;
-  private final NFAStateConnection nfa = new NFAStateConnection(new NFAState(), new NFAState());
+  private int nfaStateMark;
+  private final boolean ruleIndex;
+  private List<DFAState> startStates = List.of();
+  private final Symbols symbols;
+
+  /**
+   * Creates an empty compiled style sheet. When <code>lazy</code> is set the DFA states are
+   * generated on demand and at most <code>cacheSize</code> of them are memoized. When <code>
+   * ruleIndex</code> is set the rules are only collected for an {@link IndexMatcher}. No NFA is
+   * built for them then and {@link #generateDFA} does nothing.
+   */
+  Compiled(final boolean lazy, final int cacheSize, final boolean ruleIndex) {
+    this.lazy = lazy;
+    this.cacheSize = cacheSize;
+    this.ruleIndex = ruleIndex;
+    dfaStateCounter = new AtomicInteger();
+    nfaStateMark = nfaStateCounter;
+    symbols = new Symbols();
+    nfa = new NFAStateConnection(new NFAState(), new NFAState());
+  }
+
+  /**
+   * Creates a new compiled style sheet that shares the generated segments of <code>other</code>,
+   * which is not changed. Rules that are added to the new style sheet go into new segments. The
+   * rules of <code>other</code> that are not compiled yet are not taken over by the DFA, but they
+   * are in the list returned by {@link #getRules}. The new style sheet gets a symbol table that
+   * extends the one of <code>other</code>, so the names in the new rules don't go into the latter.
+   * The DFA states of both are numbered from the same counter, so the numbers stay unique.
+   */
+  Compiled(final Compiled other) {
+    allRules.addAll(other.allRules);
+    lazy = other.lazy;
+    cacheSize = other.cacheSize;
+    ruleIndex = other.ruleIndex;
+    dfaStateCounter = other.dfaStateCounter;
+    nfaStateCounter = other.nfaStateCounter;
+    nfaStateMark = nfaStateCounter;
+    startStates = other.startStates;
+    symbols = new Symbols(other.symbols);
+    nfa = new NFAStateConnection(new NFAState(), new NFAState());
+  }
+
+  /**
+   * Returns the states that can be reached from <code>start</code> in breadth-first order, with the
+   * events in symbol order and then the conditions.
+   */
+  private static List<DFAState> breadthFirst(final DFAState start) {
+    final List<DFAState> result = new ArrayList<>();
+    final Set<DFAState> seen = new HashSet<>();
+    final Deque<DFAState> pending = new ArrayDeque<>();
+
+    seen.add(start);
+    pending.add(start);
+
+    while (!pending.isEmpty()) {
+      final DFAState state = pending.poll();
+
+      result.add(state);
+
+      concat(
+              stream(state.events.keys()).mapToObj(state.events::get),
+              state.candidateConditions.values().stream())
+          .filter(seen::add)
+          .forEach(pending::add);
+    }
+
+    return result;
+  }
 
   private static Map<Object, SortedSet<NFAState>> collectNextSets(final SortedSet<NFAState> set) {
     final Map<Object, SortedSet<NFAState>> result = new HashMap<>();
@@ -68,40 +162,6 @@ class Compiled {
     return new NFAStateConnection(first.start, second.end);
   }
 
-  private static void dumpDFA(
-      final DFAState state, final Set<Integer> seen, final PrintWriter out) {
-    if (seen.contains(state.state)) {
-      return;
-    }
-
-    out.println(state.state + ":");
-
-    final List<DFAState> values = new ArrayList<>();
-
-    for (final String event : state.events.keySet()) {
-      final DFAState nextState = state.events.get(event);
-
-      out.println("  " + event + " -> " + nextState.state);
-      values.add(nextState);
-    }
-
-    for (Condition event : state.candidateConditions.keySet()) {
-      final DFAState nextState = state.candidateConditions.get(event);
-
-      out.println("  " + Util.conditionText(event) + " -> " + nextState.state);
-      values.add(nextState);
-    }
-
-    dumpRules(state.rules, out);
-    dumpRules(state.pseudoRules, out);
-    out.println();
-    seen.add(state.state);
-
-    for (final DFAState s : values) {
-      dumpDFA(s, seen, out);
-    }
-  }
-
   private static void dumpNFA(
       final NFAState state, final Set<Integer> seen, final PrintWriter out) {
     if (seen.contains(state.state)) {
@@ -128,16 +188,18 @@ class Compiled {
   }
 
   private static void dumpRules(final List<Rule> rules, final PrintWriter out) {
-    rules.forEach(
-        rule ->
-            out.println(
-                "  "
-                    + (rule.getElementName() != null ? rule.getElementName() : "")
-                    + (rule.getPseudoElementName() != null ? rule.getPseudoElementName() : "")
-                    + ": "
-                    + rule.getProperty().getName()
-                    + ": "
-                    + rule.getProperty().getValue()));
+    rules.stream()
+        .flatMap(rule -> stream(rule.getDeclarations()))
+        .forEach(
+            rule ->
+                out.println(
+                    "  "
+                        + (rule.getElementName() != null ? rule.getElementName() : "")
+                        + (rule.getPseudoElementName() != null ? rule.getPseudoElementName() : "")
+                        + ": "
+                        + rule.getProperty().getName()
+                        + ": "
+                        + rule.getProperty().getValue()));
   }
 
   private static void epsilonMove(final Set<NFAState> set, final NFAState state) {
@@ -146,18 +208,57 @@ class Compiled {
         .forEach(next -> epsilonMove(set, next.state));
   }
 
-  private static String label(final SortedSet<NFAState> set) {
-    return set.stream()
-        .map(state -> "#" + state.state)
-        .reduce(new StringBuilder(), StringBuilder::append, (b1, b2) -> b1)
-        .toString();
+  /** The set of NFA states identifies a DFA state. */
+  private static BitSet key(final SortedSet<NFAState> set) {
+    final BitSet result = new BitSet();
+
+    set.forEach(state -> result.set(state.state));
+
+    return result;
+  }
+
+  /**
+   * Hands out the numbers the states already have again, in ascending order along <code>states
+   * </code>. The order of the numbers then doesn't depend on the order in which the states were
+   * created, while they stay unique.
+   */
+  private static void renumber(final List<DFAState> states) {
+    final int[] numbers = states.stream().mapToInt(state -> state.state).sorted().toArray();
+
+    for (int i = 0; i < numbers.length; ++i) {
+      states.get(i).state = numbers[i];
+    }
+  }
+
+  private static SortedSet<NFAState> startSet(final NFAStateConnection nfa) {
+    // The NFA states are sorted, so the rules of a DFA state come in a stable order.
+    final SortedSet<NFAState> set = new TreeSet<>((o1, o2) -> o1.state - o2.state);
+
+    set.add(nfa.start);
+    epsilonMove(set, nfa.start);
+
+    return set;
+  }
+
+  /** Adds rules that were restored from their serialized form. They are already in the DFA. */
+  void addRestoredRules(final Collection<Rule> rules) {
+    allRules.addAll(rules);
   }
 
   /**
-   * Adds the rule to the NFA being built using the Thompson construction. The rule should be split,
-   * i.e., it should have exactly one property.
+   * Adds the rule to the NFA being built using the Thompson construction. The rule keeps its whole
+   * declaration block, so there is one entry per selector in the states. In rule index mode the
+   * rule is only added to the list.
    */
   void addRule(final Rule rule) {
+    allRules.add(rule);
+
+    if (!ruleIndex) {
+      addToNFA(rule);
+    }
+  }
+
+  private void addToNFA(final Rule rule) {
     final NFAStateConnection states = constructNFA(rule.getSelector());
 
     if (rule.getPseudoElementName() == null) {
@@ -174,6 +275,19 @@ class Compiled {
             });
   }
 
+  private void addTransition(final DFAState from, final Object event, final DFAState to) {
+    if (event instanceof Condition c) {
+      from.candidateConditions.put(c, to);
+    } else {
+      from.events.put(symbols.id((String) event), to);
+    }
+  }
+
+  /** Adds a segment that was restored from its serialized form. */
+  void addSegment(final DFAState startState) {
+    startStates = concat(startStates.stream(), Stream.of(startState)).toList();
+  }
+
   private NFAStateConnection constructChild(final DescendantSelector selector) {
     return selector.getSimpleSelector().getSelectorType() == SAC_PSEUDO_ELEMENT_SELECTOR
         ? constructNFA(selector.getAncestorSelector())
@@ -201,13 +315,12 @@ class Compiled {
   private NFAStateConnection constructElement(final ElementSelector selector) {
     final NFAState start = new NFAState();
     final NFAState end = new NFAState();
+    final String event =
+        ofNullable(selector.getNamespaceURI()).orElse("*")
+            + "|"
+            + ofNullable(selector.getLocalName()).orElse("*");
 
-    start.next.add(
-        new Next(
-            ofNullable(selector.getNamespaceURI()).orElse("*")
-                + "|"
-                + ofNullable(selector.getLocalName()).orElse("*"),
-            end));
+    start.next.add(new Next(symbol(event), end));
 
     return new NFAStateConnection(start, end);
   }
@@ -218,7 +331,7 @@ class Compiled {
     final NFAState from = new NFAState();
     final NFAState to = new NFAState();
 
-    from.next.add(new Next(event, to));
+    from.next.add(new Next(event instanceof String name ? symbol(name) : event, to));
     start.next.add(new Next(EPSILON, from));
     start.next.add(new Next(EPSILON, end));
     to.next.add(new Next(EPSILON, end));
@@ -249,17 +362,58 @@ class Compiled {
     final NFAState start = new NFAState();
     final NFAState end = new NFAState();
 
-    start.next.add(new Next(SIBLING, end));
+    start.next.add(new Next(symbol(SIBLING), end));
 
     return new NFAStateConnection(start, end);
   }
 
+  /** Creates a state with no transitions yet, which is used to restore a serialized DFA. */
+  DFAState createState() {
+    return new DFAState();
+  }
+
+  private void dumpDFA(final DFAState state, final Set<Integer> seen, final PrintWriter out) {
+    if (seen.contains(state.state)) {
+      return;
+    }
+
+    out.println(state.state + ":");
+
+    final List<DFAState> values = new ArrayList<>();
+
+    for (final int event : state.events.keys()) {
+      final DFAState nextState = state.events.get(event);
+
+      out.println("  " + symbols.name(event) + " -> " + nextState.state);
+      values.add(nextState);
+    }
+
+    for (Condition event : state.candidateConditions.keySet()) {
+      final DFAState nextState = state.candidateConditions.get(event);
+
+      out.println("  " + Util.conditionText(event) + " -> " + nextState.state);
+      values.add(nextState);
+    }
+
+    dumpRules(state.rules, out);
+    dumpRules(state.pseudoRules, out);
+    out.println();
+    seen.add(state.state);
+
+    for (final DFAState s : values) {
+      dumpDFA(s, seen, out);
+    }
+  }
+
   void dumpDFA(final PrintWriter out) {
     if (trace) {
       out.println();
       out.println("DFA START");
       out.println();
-      dumpDFA(startState, new HashSet<>(), out);
+
+      final Set<Integer> seen = new HashSet<>();
+
+      startStates.forEach(state -> dumpDFA(state, seen, out));
       out.println("DFA END");
       out.println();
       out.flush();
@@ -278,66 +432,148 @@ class Compiled {
     }
   }
 
+  /**
+   * Computes the transitions of a state in lazy mode. They are memoized in the state when the
+   * states they lead to are already known or when there is still room for the new ones. Otherwise,
+   * a transient copy of the state with its transitions is returned. Several matchers may use the
+   * same compiled style sheet at the same time. Only the state is locked, so other states can be
+   * expanded meanwhile. Because of that the maximum number of memoized states may be exceeded by a
+   * few.
+   */
+  private DFAState expand(final DFAState state) {
+    synchronized (state) {
+      return state.expanded ? state : expandLocked(state);
+    }
+  }
+
+  private DFAState expandLocked(final DFAState state) {
+    final Map<Object, SortedSet<NFAState>> nextSets = collectNextSets(state.nfaStates);
+
+    nextSets.values().removeIf(Set::isEmpty);
+
+    final boolean memoize =
+        lazyStates.size()
+                + nextSets.values().stream()
+                    .map(Compiled::key)
+                    .distinct()
+                    .filter(key -> !lazyStates.containsKey(key))
+                    .count()
+            <= cacheSize;
+    final DFAState result = memoize ? state : new DFAState(state.nfaStates);
+    final Map<BitSet, DFAState> transientStates = new HashMap<>();
+
+    nextSets.forEach(
+        (event, set) -> {
+          final BitSet key = key(set);
+
+          addTransition(
+              result,
+              event,
+              memoize
+                  ? lazyStates.computeIfAbsent(key, k -> new DFAState(set))
+                  : ofNullable(lazyStates.get(key))
+                      .orElseGet(
+                          () -> transientStates.computeIfAbsent(key, k -> new DFAState(set))));
+        });
+
+    result.events.freeze();
+    result.expanded = true;
+
+    return result;
+  }
+
+  /**
+   * Compiles the rules that were added since the previous call into a new segment. Nothing happens
+   * when there are no such rules. The cost is proportional to the new rules.
+   */
   @SuppressWarnings("java:S106") // Not logging.
   void generateDFA() {
-    dumpNFA(new PrintWriter(System.out));
-    startState = generateDFA(nfa);
-    dumpDFA(new PrintWriter(System.out));
+    if (!nfa.start.next.isEmpty()) {
+      final AutomatonGeneration event = new AutomatonGeneration();
+
+      dumpNFA(new PrintWriter(System.out));
+      event.begin();
+
+      final DFAState start = generateDFA(nfa);
+
+      startStates = concat(startStates.stream(), Stream.of(start)).toList();
+      event.end();
+
+      if (event.shouldCommit()) {
+        event.dfaStates = breadthFirst(start).size();
+        event.lazy = lazy;
+        event.nfaStates = nfaStateCounter - nfaStateMark;
+        event.rules = nfa.start.next.size();
+        event.commit();
+      }
+
+      nfaStateMark = nfaStateCounter;
+      nfa = new NFAStateConnection(new NFAState(), new NFAState());
+      dumpDFA(new PrintWriter(System.out));
+    }
   }
 
-  /** Applies the subset construction. Returns the start state. */
+  /**
+   * Applies the subset construction. Returns the start state. In lazy mode only the start state is
+   * created. Otherwise, the states of large segments are generated in parallel. The state that is
+   * put first in the shared state table for a set of NFA states wins and the task that put it there
+   * generates its transitions. Small segments are generated on the calling thread. In both cases
+   * the states are numbered afterwards in the same way, so the dumps can be compared.
+   */
   private DFAState generateDFA(final NFAStateConnection nfa) {
-    final SortedSet<NFAState> set =
-        new TreeSet<>
-        // Sorting of the NFA states makes the labels unique.
-        ((o1, o2) -> o1.state - o2.state);
-    final Map<String, DFAState> states = new HashMap<>();
+    final SortedSet<NFAState> set = startSet(nfa);
 
-    set.add(nfa.start);
-    epsilonMove(set, nfa.start);
+    if (lazy) {
+      final DFAState result = new DFAState(set);
 
+      lazyStates.put(key(set), result);
+
+      return result;
+    }
+
+    final Map<BitSet, DFAState> states = new ConcurrentHashMap<>();
     final DFAState result = new DFAState();
+    final TransitionTask task = new TransitionTask(result, set, states);
+
+    states.put(key(set), result);
+
+    if (nfaStateCounter - nfaStateMark >= PARALLEL_NFA_STATES) {
+      ForkJoinPool.commonPool().invoke(task);
+    } else {
+      final Deque<TransitionTask> pending = new ArrayDeque<>(List.of(task));
+
+      while (!pending.isEmpty()) {
+        pending.addAll(pending.poll().transitions());
+      }
+    }
 
-    states.put(label(set), result);
-    generateTransitions(result, set, states);
+    renumber(breadthFirst(result));
 
     return result;
   }
 
-  private void generateTransitions(
-      final DFAState from, final SortedSet<NFAState> set, final Map<String, DFAState> states) {
-    collectNextSets(set).entrySet().stream()
-        .filter(e -> !e.getValue().isEmpty())
-        .forEach(
-            e -> {
-              DFAState nextState;
-              final String s = label(e.getValue());
-              final DFAState state = states.get(s);
-
-              if (state == null) {
-                nextState = new DFAState();
-                states.put(s, nextState);
-              } else {
-                nextState = state;
-              }
-
-              if (e.getKey() instanceof Condition c) {
-                from.candidateConditions.put(c, nextState);
-              } else {
-                from.events.put((String) e.getKey(), nextState);
-              }
-
-              e.getValue()
-                  .forEach(
-                      next -> {
-                        nextState.rules.addAll(next.rules);
-                        nextState.pseudoRules.addAll(next.pseudoRules);
-                      });
-
-              if (state == null) {
-                generateTransitions(nextState, e.getValue(), states);
-              }
-            });
+  /** Returns all the rules in the order in which they were added. */
+  List<Rule> getRules() {
+    return allRules;
+  }
+
+  /** Returns the start states of the segments, from the oldest to the most recent one. */
+  List<DFAState> getStartStates() {
+    return startStates;
+  }
+
+  Symbols getSymbols() {
+    return symbols;
+  }
+
+  /**
+   * The symbol is created when the NFA is built, because the matcher only looks up the symbols of
+   * the elements in the document.
+   */
+  private String symbol(final String event) {
+    symbols.id(event);
+
+    return event;
   }
 
   private record NFAStateConnection(NFAState start, NFAState end) {}
@@ -347,13 +583,38 @@ class Compiled {
   /** Contains all matching rules sorted from least to most specific. */
   class DFAState {
     final Map<Condition, DFAState> candidateConditions = new HashMap<>();
-    final DigitalTree<DFAState> events = new DigitalTree<>(trace);
+    // Frozen when all the transitions of the state are known.
+    final IntMap<DFAState> events = new IntMap<>();
     final List<Rule> pseudoRules = new ArrayList<>();
     final List<Rule> rules = new ArrayList<>();
     int state;
+    private volatile boolean expanded;
+    private final SortedSet<NFAState> nfaStates;
 
     private DFAState() {
-      state = dfaStateCounter++;
+      state = dfaStateCounter.getAndIncrement();
+      nfaStates = null;
+      expanded = true;
+    }
+
+    /** A state for lazy mode, which gets its transitions later. */
+    private DFAState(final SortedSet<NFAState> nfaStates) {
+      state = dfaStateCounter.getAndIncrement();
+      this.nfaStates = nfaStates;
+
+      nfaStates.forEach(
+          s -> {
+            rules.addAll(s.rules);
+            pseudoRules.addAll(s.pseudoRules);
+          });
+    }
+
+    /**
+     * Returns the state with its transitions. In lazy mode they are computed the first time. The
+     * result may then be a transient copy of the state.
+     */
+    DFAState expand() {
+      return expanded ? this : Compiled.this.expand(this);
     }
   }
 
@@ -367,4 +628,70 @@ class Compiled {
       state = nfaStateCounter++;
     }
   }
+
+  /**
+   * Generates the transitions of a DFA state and then, in parallel, those of the new states it
+   * leads to. Only this task changes the state.
+   */
+  private class TransitionTask extends RecursiveAction {
+    private final DFAState from;
+    private final SortedSet<NFAState> set;
+    private final Map<BitSet, DFAState> states;
+
+    private TransitionTask(
+        final DFAState from, final SortedSet<NFAState> set, final Map<BitSet, DFAState> states) {
+      this.from = from;
+      this.set = set;
+      this.states = states;
+    }
+
+    @Override
+    protected void compute() {
+      invokeAll(transitions());
+    }
+
+    private DFAState nextState(
+        final SortedSet<NFAState> nextSet, final List<TransitionTask> tasks) {
+      final BitSet key = key(nextSet);
+      final DFAState state = states.get(key);
+
+      if (state != null) {
+        return state;
+      }
+
+      final DFAState created = new DFAState();
+      final DFAState existing = states.putIfAbsent(key, created);
+
+      if (existing != null) {
+        return existing;
+      }
+
+      nextSet.forEach(
+          next -> {
+            created.rules.addAll(next.rules);
+            created.pseudoRules.addAll(next.pseudoRules);
+          });
+
+      tasks.add(new TransitionTask(created, nextSet, states));
+
+      return created;
+    }
+
+    /** Returns the tasks for the new states that this one leads to. */
+    private List<TransitionTask> transitions() {
+      final List<TransitionTask> tasks = new ArrayList<>();
+
+      collectNextSets(set)
+          .forEach(
+              (event, nextSet) -> {
+                if (!nextSet.isEmpty()) {
+                  addTransition(from, event, nextState(nextSet, tasks));
+                }
+              });
+
+      from.events.freeze();
+
+      return tasks;
+    }
+  }
 }
@@ -26,22 +26,55 @@ import org.xml.sax.XMLReader;
  * @author Werner Donné
  */
 public class Configuration {
-  private static final Set<String> WITH_ARGUMENTS = set("-baseurl", "-uacss", "-c", "-p", "-data");
-  private static final Set<String> WITHOUT_ARGUMENTS = set("-v", "-screen", "-html");
+  private static final Set<String> WITH_ARGUMENTS =
+      set("-baseurl", "-uacss", "-c", "-p", "-data", "-dfa-cache", "-precompiled");
+  private static final Set<String> WITHOUT_ARGUMENTS =
+      set("-v", "-screen", "-html", "-lazy-dfa", "-rule-index", "-chunked", "-pipelined");
 
   private URL baseUrl;
   private URL catalog;
+  private boolean chunkedTransformationMode;
+  private ConversionStats conversionStats;
   private URL data;
+  private int dfaStateCacheSize = 10000;
+  private boolean lazyDFAMode;
   private Map<String, String> parameters = new HashMap<>();
+  private boolean pipelinedMode;
+  private URL precompiledStyleSheet;
   private URL[] preprocessors;
   private XMLReader reader;
   private final List<String> remainingArgs = new ArrayList<>();
+  private boolean ruleIndexMode;
+  private RuleProfile ruleProfile;
   private boolean screenMode;
   private URL userAgentStyleSheet;
   private boolean validationMode;
 
   public Configuration() {}
 
+  /**
+   * Copies <code>other</code>. The parameters are copied as well. The reader isn't taken over,
+   * because it can't be used by several threads at the same time.
+   */
+  public Configuration(final Configuration other) {
+    baseUrl = other.baseUrl;
+    catalog = other.catalog;
+    chunkedTransformationMode = other.chunkedTransformationMode;
+    conversionStats = other.conversionStats;
+    data = other.data;
+    dfaStateCacheSize = other.dfaStateCacheSize;
+    lazyDFAMode = other.lazyDFAMode;
+    parameters = new HashMap<>(other.parameters);
+    pipelinedMode = other.pipelinedMode;
+    precompiledStyleSheet = other.precompiledStyleSheet;
+    preprocessors = other.preprocessors;
+    ruleIndexMode = other.ruleIndexMode;
+    ruleProfile = other.ruleProfile;
+    screenMode = other.screenMode;
+    userAgentStyleSheet = other.userAgentStyleSheet;
+    validationMode = other.validationMode;
+  }
+
   /** Initializes from the common command-line arguments. */
   public Configuration(final String[] args) {
     stream(args)
@@ -54,8 +87,16 @@ public class Configuration {
               ofNullable(map.get("-c")).ifPresent(u -> setCatalog(createUrl(u)));
               ofNullable(map.get("-data")).ifPresent(u -> setData(createUrl(u)));
               ofNullable(map.get("-p")).ifPresent(p -> setPreprocessors(createUrls(p)));
+              ofNullable(map.get("-precompiled"))
+                  .ifPresent(u -> setPrecompiledStyleSheet(createUrl(u)));
               ofNullable(map.get("-v")).ifPresent(v -> setValidationMode(true));
               ofNullable(map.get("-screen")).ifPresent(v -> setScreenMode(true));
+              ofNullable(map.get("-lazy-dfa")).ifPresent(v -> setLazyDFAMode(true));
+              ofNullable(map.get("-dfa-cache"))
+                  .ifPresent(v -> setDFAStateCacheSize(Integer.parseInt(v)));
+              ofNullable(map.get("-rule-index")).ifPresent(v -> setRuleIndexMode(true));
+              ofNullable(map.get("-chunked")).ifPresent(v -> setChunkedTransformationMode(true));
+              ofNullable(map.get("-pipelined")).ifPresent(v -> setPipelinedMode(true));
               setParameters(
                   map(
                       map.keySet().stream()
@@ -100,6 +141,20 @@ public class Configuration {
     return catalog;
   }
 
+  /**
+   * @see Configuration#setChunkedTransformationMode
+   */
+  public boolean getChunkedTransformationMode() {
+    return chunkedTransformationMode;
+  }
+
+  /**
+   * @see Configuration#setConversionStats
+   */
+  public ConversionStats getConversionStats() {
+    return conversionStats;
+  }
+
   /**
    * @see Configuration#setData
    */
@@ -107,6 +162,20 @@ public class Configuration {
     return data;
   }
 
+  /**
+   * @see Configuration#setDFAStateCacheSize
+   */
+  public int getDFAStateCacheSize() {
+    return dfaStateCacheSize;
+  }
+
+  /**
+   * @see Configuration#setLazyDFAMode
+   */
+  public boolean getLazyDFAMode() {
+    return lazyDFAMode;
+  }
+
   /**
    * @see Configuration#setParameters
    */
@@ -114,6 +183,20 @@ public class Configuration {
     return parameters;
   }
 
+  /**
+   * @see Configuration#setPipelinedMode
+   */
+  public boolean getPipelinedMode() {
+    return pipelinedMode;
+  }
+
+  /**
+   * @see Configuration#setPrecompiledStyleSheet
+   */
+  public URL getPrecompiledStyleSheet() {
+    return precompiledStyleSheet;
+  }
+
   /**
    * @see Configuration#setPreprocessors
    */
@@ -132,6 +215,20 @@ public class Configuration {
     return reader;
   }
 
+  /**
+   * @see Configuration#setRuleIndexMode
+   */
+  public boolean getRuleIndexMode() {
+    return ruleIndexMode;
+  }
+
+  /**
+   * @see Configuration#setRuleProfile
+   */
+  public RuleProfile getRuleProfile() {
+    return ruleProfile;
+  }
+
   /**
    * @see Configuration#setScreenMode
    */
@@ -183,11 +280,47 @@ public class Configuration {
     this.catalog = catalog;
   }
 
+  /**
+   * Runs the XSLT style sheet per page sequence instead of on the whole document when set to
+   * <code>true</code>. The memory use then depends on the largest page sequence instead of the
+   * size of the document. The page sequences are kept in a temporary file until the end of the
+   * document. The default is <code>false</code>.
+   */
+  public void setChunkedTransformationMode(final boolean chunkedTransformationMode) {
+    this.chunkedTransformationMode = chunkedTransformationMode;
+  }
+
+  /**
+   * Measures every stage of the filter chain in <code>conversionStats</code>. It is <code>null
+   * </code> by default, which turns off the instrumentation.
+   */
+  public void setConversionStats(final ConversionStats conversionStats) {
+    this.conversionStats = conversionStats;
+  }
+
   /** This is XML data that will be merged into the document prior to the conversion. */
   public void setData(final URL data) {
     this.data = data;
   }
 
+  /**
+   * The maximum number of DFA states that are kept per compiled style sheet in lazy DFA mode. When
+   * it is reached the rules are matched by NFA simulation for the states that are not yet known.
+   * The default is 10000.
+   */
+  public void setDFAStateCacheSize(final int dfaStateCacheSize) {
+    this.dfaStateCacheSize = dfaStateCacheSize;
+  }
+
+  /**
+   * Generates the DFA states of the compiled style sheets only when the document reaches them when
+   * set to <code>true</code>. This is interesting for large style sheets with many descendant
+   * selectors. The default is <code>false</code>.
+   */
+  public void setLazyDFAMode(final boolean lazyDFAMode) {
+    this.lazyDFAMode = lazyDFAMode;
+  }
+
   /**
    * User Agent parameters:
    *
@@ -231,6 +364,26 @@ public class Configuration {
     this.parameters = parameters;
   }
 
+  /**
+   * Runs the XSLT style sheet and the serialization on another thread than the parsing, the
+   * projection and the page setup when set to <code>true</code>. This shortens the conversion of
+   * large documents on machines with more than one processor. The default is <code>false</code>.
+   */
+  public void setPipelinedMode(final boolean pipelinedMode) {
+    this.pipelinedMode = pipelinedMode;
+  }
+
+  /**
+   * A file that was produced with {@link CompileStyleSheet}. It replaces the user agent style sheet
+   * and is loaded without parsing and DFA construction. The screen mode and the <code>
+   * html-header-mark</code> parameter that were used to produce it remain in effect. When it can't
+   * be loaded, the error is logged and the user agent style sheet is used. May be <code>null
+   * </code>.
+   */
+  public void setPrecompiledStyleSheet(final URL precompiledStyleSheet) {
+    this.precompiledStyleSheet = precompiledStyleSheet;
+  }
+
   /**
    * Style sheets that are executed in the provided order before the transformation to XSL-FO. May
    * be <code>null</code>.
@@ -247,6 +400,28 @@ public class Configuration {
     this.reader = reader;
   }
 
+  /**
+   * Matches the rules with an index of their rightmost selectors instead of a DFA when set to
+   * <code>true</code>. Nothing has to be generated then, which can be faster for very large style
+   * sheets. The DFA modes don't apply in this mode. The default is <code>false</code>.
+   *
+   * <p>When the system property <code>net.pincette.csstoxslfo.checkRuleIndex</code> is set, the DFA
+   * is generated anyway and the index is checked against it. Every element for which they differ
+   * is logged as a warning.
+   */
+  public void setRuleIndexMode(final boolean ruleIndexMode) {
+    this.ruleIndexMode = ruleIndexMode;
+  }
+
+  /**
+   * Turns on the profiling of the rule matching when it is not <code>null</code>. The profile
+   * receives the counts of all the conversions with this configuration. Profiling is only done in
+   * the DFA modes. The default is <code>null</code>.
+   */
+  public void setRuleProfile(final RuleProfile ruleProfile) {
+    this.ruleProfile = ruleProfile;
+  }
+
   /**
    * Interprets common CSS rules and those in the <code>screen</code> medium when set to <code>true
    * </code>. Otherwise, the <code>print</code> medium is considered instead. The default is <code>
@@ -0,0 +1,449 @@
+package net.pincette.csstoxslfo;
+
+import static java.lang.System.exit;
+import static java.lang.System.nanoTime;
+import static java.net.InetAddress.getLoopbackAddress;
+import static java.net.URLDecoder.decode;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.stream;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toMap;
+import static net.pincette.csstoxslfo.Util.LOGGER;
+import static net.pincette.csstoxslfo.Util.printCommonUsage;
+import static net.pincette.csstoxslfo.Util.printUserAgentParameters;
+import static net.pincette.util.Collections.set;
+import static net.pincette.util.Util.tryToDoRethrow;
+import static net.pincette.util.Util.tryToGetRethrow;
+import static net.pincette.util.Util.tryToGetSilent;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import net.pincette.util.ArgsBuilder;
+
+/**
+ * A long-running HTTP server that converts documents to XSL-FO. A POST on <code>/convert</code>
+ * with an XML document in the body returns the XSL-FO. The query parameters are user agent
+ * parameters for that document. The parameter <code>base-url</code> is also the URL against which
+ * the relative URLs in the document are resolved. The style sheets come with the document as
+ * usual.
+ *
+ * <p>Only the parameters that affect a single document are accepted. The others, such as <code>
+ * html-header-mark</code>, change the shared user agent style sheet and can only be set in the
+ * configuration. A request with another parameter is rejected with status 400.
+ *
+ * <p>At most <code>threads</code> documents are converted at the same time and at most <code>
+ * queueSize</code> requests wait for their turn. The other requests are rejected with status 503.
+ * A request body or a result that is larger than <code>maxBodySize</code> bytes is rejected with
+ * status 413. A GET on <code>/stats</code> returns the counters as lines of the form <code>
+ * name=value</code>.
+ *
+ * @author Werner Donné
+ */
+public class ConversionServer {
+  private static final String BASE_URL = "base-url";
+  private static final int DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+  private static final Set<String> PARAMETERS =
+      set(
+          BASE_URL,
+          "column-count",
+          "country",
+          "font-size",
+          "language",
+          "odd-even-shift",
+          "orientation",
+          "paper-margin-bottom",
+          "paper-margin-left",
+          "paper-margin-right",
+          "paper-margin-top",
+          "paper-mode",
+          "paper-size",
+          "rule-thickness",
+          "writing-mode");
+  private static final Set<String> PENDING =
+      set("-bind", "-max-body", "-port", "-queue", "-threads");
+  private static final String TOO_LARGE = "The request body or the result is too large.";
+
+  private final Semaphore admission;
+  private final int capacity;
+  private final LongAdder completed = new LongAdder();
+  private final ConverterEngine engine;
+  private final LongAdder failed = new LongAdder();
+  private final int maxBodySize;
+  private final AtomicLong maxLatency = new AtomicLong();
+  private final LongAdder rejected = new LongAdder();
+  private final HttpServer server;
+  private final long started = nanoTime();
+  private final int threads;
+  private final LongAdder totalLatency = new LongAdder();
+  private final Semaphore workers;
+
+  /**
+   * Creates a server that listens on the loopback address and accepts bodies of at most 64MB.
+   *
+   * @see ConversionServer#ConversionServer(Configuration, InetSocketAddress, int, int, int)
+   */
+  public ConversionServer(
+      final Configuration configuration, final int port, final int threads, final int queueSize)
+      throws IOException {
+    this(
+        configuration,
+        new InetSocketAddress(getLoopbackAddress(), port),
+        threads,
+        queueSize,
+        DEFAULT_MAX_BODY_SIZE);
+  }
+
+  /**
+   * Creates a server, which compiles the user agent style sheet right away. It doesn't listen
+   * until it is started.
+   *
+   * @param configuration the configuration for all conversions, which is copied.
+   * @param address the address and port on which the server will listen.
+   * @param threads the maximum number of conversions at the same time.
+   * @param queueSize the maximum number of requests that wait for a conversion.
+   * @param maxBodySize the maximum size in bytes of a request body and of a result.
+   * @throws IOException when the server can't be created.
+   */
+  public ConversionServer(
+      final Configuration configuration,
+      final InetSocketAddress address,
+      final int threads,
+      final int queueSize,
+      final int maxBodySize)
+      throws IOException {
+    this.threads = threads;
+    this.maxBodySize = maxBodySize;
+    engine = new ConverterEngine(configuration, threads);
+    capacity = threads + queueSize;
+    admission = new Semaphore(capacity);
+    workers = new Semaphore(threads);
+    server = HttpServer.create(address, 0);
+    server.createContext("/convert", this::convert);
+    server.createContext("/stats", this::stats);
+    // Rejected requests return immediately, so the number of threads is bounded by admission.
+    server.setExecutor(newCachedThreadPool());
+  }
+
+  private static InetAddress inetAddress(final String host) {
+    return tryToGetRethrow(() -> InetAddress.getByName(host)).orElse(null);
+  }
+
+  private static int intArg(final Map<String, String> args, final String name, final int value) {
+    return ofNullable(args.get(name)).map(Integer::parseInt).orElse(value);
+  }
+
+  @SuppressWarnings("squid:S106") // Not logging.
+  public static void main(final String[] args) {
+    try {
+      final Configuration configuration = new Configuration(args);
+
+      stream(configuration.remainingArgs())
+          .reduce(
+              new ArgsBuilder(),
+              (b, a) -> PENDING.contains(a) ? b.addPending(a) : b.add(a),
+              (b1, b2) -> b1)
+          .build()
+          .map(a -> serveWithArgs(a, configuration))
+          .orElse(() -> usage(1))
+          .run();
+    } catch (IllegalArgumentException e) {
+      usage(1);
+    }
+  }
+
+  private static long millis(final long nanos) {
+    return NANOSECONDS.toMillis(nanos);
+  }
+
+  private static long contentLength(final HttpExchange exchange) {
+    return ofNullable(exchange.getRequestHeaders().getFirst("Content-Length"))
+        .flatMap(length -> tryToGetSilent(() -> Long.parseLong(length)))
+        .orElse(-1L);
+  }
+
+  private static Map<String, String> parameters(final URI uri) {
+    return ofNullable(uri.getRawQuery())
+        .map(
+            query ->
+                stream(query.split("&"))
+                    .map(p -> p.split("=", 2))
+                    .filter(p -> p.length == 2)
+                    .collect(
+                        toMap(p -> decode(p[0], UTF_8), p -> decode(p[1], UTF_8), (v1, v2) -> v2)))
+        .orElseGet(Map::of);
+  }
+
+  private static Optional<String> refusedParameter(final Map<String, String> parameters) {
+    return parameters.keySet().stream().filter(name -> !PARAMETERS.contains(name)).findFirst();
+  }
+
+  private static void send(final HttpExchange exchange, final int status, final String body)
+      throws IOException {
+    final byte[] bytes = body.getBytes(UTF_8);
+
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    exchange.getResponseBody().write(bytes);
+  }
+
+  private static Runnable serveWithArgs(
+      final Map<String, String> args, final Configuration configuration) {
+    return args.containsKey("-h")
+        ? () -> usage(0)
+        : () ->
+            tryToDoRethrow(
+                () -> {
+                  final InetSocketAddress address =
+                      new InetSocketAddress(
+                          ofNullable(args.get("-bind"))
+                              .map(ConversionServer::inetAddress)
+                              .orElseGet(InetAddress::getLoopbackAddress),
+                          intArg(args, "-port", 9000));
+                  final int threads =
+                      intArg(args, "-threads", Runtime.getRuntime().availableProcessors());
+
+                  new ConversionServer(
+                          configuration,
+                          address,
+                          threads,
+                          intArg(args, "-queue", threads * 4),
+                          intArg(args, "-max-body", DEFAULT_MAX_BODY_SIZE))
+                      .start();
+                  LOGGER.info(() -> "Listening on " + address);
+                });
+  }
+
+  @SuppressWarnings("squid:S106") // Not logging.
+  private static void usage(final int code) {
+    System.err.println("Usage: net.pincette.csstoxslfo.ConversionServer");
+    printCommonUsage(System.err);
+    System.err.println("  [-bind address]: the address to listen on (default: loopback)");
+    System.err.println("  [-port port]: the port to listen on (default: 9000)");
+    System.err.println("  [-threads count]: maximum parallel conversions (default: processors)");
+    System.err.println("  [-queue size]: maximum waiting requests (default: 4 times -threads)");
+    System.err.println("  [-max-body bytes]: maximum request and result size (default: 64MB)");
+    System.err.println();
+    printUserAgentParameters(System.err);
+    exit(code);
+  }
+
+  private void convert(final HttpExchange exchange) throws IOException {
+    try (exchange) {
+      final Map<String, String> parameters = parameters(exchange.getRequestURI());
+      final Optional<String> refused = refusedParameter(parameters);
+
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        send(exchange, 405, "Use POST.");
+      } else if (refused.isPresent()) {
+        failed.increment();
+        send(exchange, 400, "The parameter " + refused.get() + " can't be set per request.");
+      } else if (contentLength(exchange) > maxBodySize) {
+        failed.increment();
+        send(exchange, 413, TOO_LARGE);
+      } else if (!admission.tryAcquire()) {
+        rejected.increment();
+        send(exchange, 503, "Too many requests.");
+      } else {
+        try {
+          convertAdmitted(exchange, parameters);
+        } finally {
+          admission.release();
+        }
+      }
+    }
+  }
+
+  private void convertAdmitted(final HttpExchange exchange, final Map<String, String> parameters)
+      throws IOException {
+    final long start = nanoTime();
+    final BoundedInputStream in = new BoundedInputStream(exchange.getRequestBody(), maxBodySize);
+    final BoundedOutputStream out = new BoundedOutputStream(maxBodySize);
+
+    try {
+      final URL baseUrl =
+          parameters.containsKey(BASE_URL) ? new URL(parameters.get(BASE_URL)) : null;
+
+      workers.acquire();
+
+      try {
+        engine.convert(in, baseUrl, parameters, out);
+      } finally {
+        workers.release();
+      }
+    } catch (MalformedURLException e) {
+      failed.increment();
+      send(exchange, 400, e.getMessage());
+
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      rejected.increment();
+      send(exchange, 503, "Interrupted.");
+
+      return;
+    } catch (IOException e) {
+      failed.increment();
+
+      if (in.exceeded || out.exceeded) {
+        send(exchange, 413, TOO_LARGE);
+      } else {
+        send(exchange, 500, String.valueOf(e.getMessage()));
+      }
+
+      return;
+    }
+
+    final long latency = nanoTime() - start;
+
+    completed.increment();
+    totalLatency.add(latency);
+    maxLatency.accumulateAndGet(latency, Math::max);
+    exchange.getResponseHeaders().set("Content-Type", "application/xml");
+    exchange.sendResponseHeaders(200, out.size());
+    out.writeTo(exchange.getResponseBody());
+  }
+
+  /** Starts listening. */
+  public void start() {
+    server.start();
+  }
+
+  private void stats(final HttpExchange exchange) throws IOException {
+    try (exchange) {
+      final long uptime = nanoTime() - started;
+      final long count = completed.sum();
+      final int active = threads - workers.availablePermits();
+
+      send(
+          exchange,
+          200,
+          "uptime-ms="
+              + millis(uptime)
+              + "\ncompleted="
+              + count
+              + "\nfailed="
+              + failed.sum()
+              + "\nrejected="
+              + rejected.sum()
+              + "\nactive="
+              + active
+              + "\nqueued="
+              + (capacity - admission.availablePermits() - active)
+              + "\nthroughput-per-second="
+              + (uptime > 0 ? count * 1_000_000_000.0 / uptime : 0)
+              + "\naverage-latency-ms="
+              + (count > 0 ? millis(totalLatency.sum() / count) : 0)
+              + "\nmax-latency-ms="
+              + millis(maxLatency.get())
+              + "\n");
+    }
+  }
+
+  /**
+   * Stops the server. It waits at most <code>delay</code> seconds for the running exchanges to
+   * finish.
+   */
+  public void stop(final int delay) {
+    server.stop(delay);
+  }
+
+  /** Fails when more than <code>max</code> bytes are read. */
+  private static class BoundedInputStream extends FilterInputStream {
+    private long count;
+    private boolean exceeded;
+    private final long max;
+
+    private BoundedInputStream(final InputStream in, final long max) {
+      super(in);
+      this.max = max;
+    }
+
+    private void count(final long bytes) throws IOException {
+      count += bytes;
+
+      if (count > max) {
+        exceeded = true;
+        throw new IOException(TOO_LARGE);
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      final int result = super.read();
+
+      if (result != -1) {
+        count(1);
+      }
+
+      return result;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+      final int result = super.read(b, off, len);
+
+      if (result > 0) {
+        count(result);
+      }
+
+      return result;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+      final long result = super.skip(n);
+
+      count(result);
+
+      return result;
+    }
+  }
+
+  /** Fails when more than <code>max</code> bytes are written. */
+  private static class BoundedOutputStream extends ByteArrayOutputStream {
+    private boolean exceeded;
+    private final int max;
+
+    private BoundedOutputStream(final int max) {
+      this.max = max;
+    }
+
+    /** The methods of the superclass can't throw an <code>IOException</code>. */
+    private void check(final int bytes) {
+      if (size() + bytes > max) {
+        exceeded = true;
+        throw new UncheckedIOException(new IOException(TOO_LARGE));
+      }
+    }
+
+    @Override
+    public synchronized void write(final int b) {
+      check(1);
+      super.write(b);
+    }
+
+    @Override
+    public synchronized void write(final byte[] b, final int off, final int len) {
+      check(len);
+      super.write(b, off, len);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+package net.pincette.csstoxslfo;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the time and the number of events of every stage in the filter chain. Set it with
+ * {@link Configuration#setConversionStats} to turn on the instrumentation. The stats can be shared
+ * by several conversions, also at the same time.
+ *
+ * <p>The stages are measured at their input, so the times of a stage include those of the stages
+ * that come after it. The report subtracts them. The output of a stage is the input of the next
+ * one. The last stage is the output of the conversion. In pipelined mode the stages after the pipe
+ * run on another thread. Nothing is subtracted from the <code>Pipe</code> stage, which is the time
+ * the stages before it spent handing over the events.
+ *
+ * <p>The report is tab-separated text with a line per stage in the order of the chain. The columns
+ * are <code>wall-ms</code>, <code>cpu-ms</code>, <code>start-elements</code>, <code>end-elements
+ * </code>, <code>character-events</code>, <code>characters</code> and <code>stage</code>. The
+ * counts are for the input of the stage. The last two lines have the lookups and hits of the shared
+ * styles, which elements with the same matching rules take over from each other.
+ *
+ * @author Werner Donné
+ */
+public class ConversionStats {
+  private final LongAdder sharedStyleHits = new LongAdder();
+  private final LongAdder sharedStyleLookups = new LongAdder();
+  private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+  private static double millis(final long nanos) {
+    return nanos / 1_000_000.0;
+  }
+
+  /** The number of elements that took over the style of an earlier element. */
+  public long getSharedStyleHits() {
+    return sharedStyleHits.sum();
+  }
+
+  public long getSharedStyleLookups() {
+    return sharedStyleLookups.sum();
+  }
+
+  /** Returns the stages in the order of the filter chain. */
+  public List<Stage> getStages() {
+    synchronized (stages) {
+      return new ArrayList<>(stages.values());
+    }
+  }
+
+  void sharedStyles(final long hits, final long lookups) {
+    sharedStyleHits.add(hits);
+    sharedStyleLookups.add(lookups);
+  }
+
+  Stage stage(final String name) {
+    synchronized (stages) {
+      return stages.computeIfAbsent(name, Stage::new);
+    }
+  }
+
+  /** Writes the report. */
+  public void write(final Writer out) {
+    final PrintWriter writer = new PrintWriter(out);
+    final List<Stage> list = getStages();
+
+    writer.println(
+        "# wall-ms\tcpu-ms\tstart-elements\tend-elements\tcharacter-events\tcharacters\tstage");
+
+    for (int i = 0; i < list.size(); ++i) {
+      final Stage stage = list.get(i);
+      final Stage next = i < list.size() - 1 && !stage.lastOnThread ? list.get(i + 1) : null;
+
+      writer.printf(
+          Locale.ROOT,
+          "%.3f\t%.3f\t%d\t%d\t%d\t%d\t%s%n",
+          millis(stage.getWallTime() - (next != null ? next.getWallTime() : 0)),
+          millis(stage.getCpuTime() - (next != null ? next.getCpuTime() : 0)),
+          stage.getStartElements(),
+          stage.getEndElements(),
+          stage.getCharacterEvents(),
+          stage.getCharacters(),
+          stage.getName());
+    }
+
+    writer.println("# shared-style-lookups\t" + getSharedStyleLookups());
+    writer.println("# shared-style-hits\t" + getSharedStyleHits());
+    writer.flush();
+  }
+
+  /** The counters of a stage. The times include those of the stages that come after it. */
+  public static class Stage {
+    private final LongAdder characterEvents = new LongAdder();
+    private final LongAdder characters = new LongAdder();
+    private final LongAdder cpuTime = new LongAdder();
+    private final LongAdder endElements = new LongAdder();
+    private volatile boolean lastOnThread;
+    private final String name;
+    private final LongAdder startElements = new LongAdder();
+    private final LongAdder wallTime = new LongAdder();
+
+    private Stage(final String name) {
+      this.name = name;
+    }
+
+    void characters(final int length) {
+      characterEvents.increment();
+      characters.add(length);
+    }
+
+    void endElement() {
+      endElements.increment();
+    }
+
+    public long getCharacterEvents() {
+      return characterEvents.sum();
+    }
+
+    public long getCharacters() {
+      return characters.sum();
+    }
+
+    /** The CPU time in nanoseconds. */
+    public long getCpuTime() {
+      return cpuTime.sum();
+    }
+
+    public long getEndElements() {
+      return endElements.sum();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getStartElements() {
+      return startElements.sum();
+    }
+
+    /** The wall-clock time in nanoseconds. */
+    public long getWallTime() {
+      return wallTime.sum();
+    }
+
+    /** Marks the stage as the last one on its thread, so the next one isn't subtracted. */
+    Stage lastOnThread() {
+      lastOnThread = true;
+
+      return this;
+    }
+
+    void startElement() {
+      startElements.increment();
+    }
+
+    void time(final long wall, final long cpu) {
+      wallTime.add(wall);
+      cpuTime.add(cpu);
+    }
+  }
+}
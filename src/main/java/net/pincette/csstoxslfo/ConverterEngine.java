@@ -0,0 +1,149 @@
+package net.pincette.csstoxslfo;
+
+import static net.pincette.csstoxslfo.Util.createParentFilter;
+import static net.pincette.xml.sax.Util.newSAXTransformerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import net.pincette.csstoxslfo.util.EscapedXMLStreamWriter;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * Converts documents to XSL-FO with a fixed configuration. An engine is meant to be created once
+ * and shared by all the threads that do conversions. A conversion leases a pipeline, which is
+ * created when none is available. A pipeline has its own copy of the configuration, its own XML
+ * reader and its own filters. It goes back to the pool when the conversion succeeds and is
+ * dropped otherwise.
+ *
+ * @author Werner Donné
+ */
+public class ConverterEngine {
+  private final Configuration configuration;
+  private final BlockingQueue<Pipeline> idle;
+
+  /** The pool keeps at most two pipelines per processor. */
+  public ConverterEngine(final Configuration configuration) {
+    this(configuration, Runtime.getRuntime().availableProcessors() * 2);
+  }
+
+  /**
+   * The configuration is copied, so changing it afterwards has no effect. At most <code>
+   * maxIdlePipelines</code> pipelines are kept when they are not in use. The user agent style
+   * sheet is compiled right away.
+   */
+  public ConverterEngine(final Configuration configuration, final int maxIdlePipelines) {
+    this.configuration = new Configuration(configuration);
+    idle = new ArrayBlockingQueue<>(maxIdlePipelines);
+    UserAgentStyleSheet.get(this.configuration);
+  }
+
+  /**
+   * Converts the document in <code>in</code> and writes the XSL-FO to <code>out</code>. The streams
+   * are not closed.
+   *
+   * @param in the input document.
+   * @param baseUrl the URL against which the relative URLs in the document are resolved. When it is
+   *     <code>null</code> the base URL of the configuration is used.
+   * @param out the output stream for the XSL-FO document.
+   * @throws IOException when the conversion fails.
+   */
+  public void convert(final InputStream in, final URL baseUrl, final OutputStream out)
+      throws IOException {
+    convert(in, baseUrl, Map.of(), out);
+  }
+
+  /**
+   * Converts the document in <code>in</code> and writes the XSL-FO to <code>out</code>. The streams
+   * are not closed.
+   *
+   * @param in the input document.
+   * @param baseUrl the URL against which the relative URLs in the document are resolved. When it is
+   *     <code>null</code> the base URL of the configuration is used.
+   * @param parameters user agent parameters that override those of the configuration for this
+   *     document.
+   * @param out the output stream for the XSL-FO document.
+   * @throws IOException when the conversion fails.
+   */
+  public void convert(
+      final InputStream in,
+      final URL baseUrl,
+      final Map<String, String> parameters,
+      final OutputStream out)
+      throws IOException {
+    try {
+      final Pipeline pipeline = lease();
+
+      pipeline.convert(in, baseUrl, parameters, out);
+      idle.offer(pipeline);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(e);
+    }
+  }
+
+  private Pipeline lease() throws SAXException, TransformerConfigurationException {
+    final Pipeline pipeline = idle.poll();
+
+    return pipeline != null ? pipeline : new Pipeline();
+  }
+
+  private class Pipeline {
+    private final Configuration configuration =
+        new Configuration(ConverterEngine.this.configuration);
+    private final SAXTransformerFactory factory = newSAXTransformerFactory();
+    private final CSSToXSLFOFilter filter;
+
+    private Pipeline() throws SAXException, TransformerConfigurationException {
+      filter = new CSSToXSLFOFilter(configuration, createParentFilter(null, configuration));
+    }
+
+    private void convert(
+        final InputStream in,
+        final URL baseUrl,
+        final Map<String, String> parameters,
+        final OutputStream out)
+        throws IOException, SAXException, TransformerConfigurationException {
+      final URL url = baseUrl != null ? baseUrl : ConverterEngine.this.configuration.getBaseUrl();
+      final TransformerHandler handler = factory.newTransformerHandler();
+      final InputSource source = new InputSource(in);
+
+      reset(url, parameters);
+
+      if (configuration.getData() != null) {
+        // The data is read by the merge filter.
+        filter.setParent(createParentFilter(null, configuration));
+      }
+
+      if (url != null) {
+        source.setSystemId(url.toString());
+      }
+
+      handler.setResult(new StreamResult(new EscapedXMLStreamWriter(out)));
+      filter.setContentHandler(handler);
+      filter.parse(source);
+    }
+
+    /** The filters may hold on to the parameters, so the map is changed in place. */
+    private void reset(final URL baseUrl, final Map<String, String> parameters) {
+      configuration.setBaseUrl(baseUrl);
+      configuration.getParameters().clear();
+      configuration.getParameters().putAll(ConverterEngine.this.configuration.getParameters());
+      configuration.getParameters().putAll(parameters);
+
+      if (baseUrl != null) {
+        configuration.getParameters().put("base-url", baseUrl.toString());
+      }
+    }
+  }
+}
@@ -34,6 +34,12 @@ class DisplayNonePropagator extends XMLFilterImpl {
     stack.pop();
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    stack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -49,6 +55,7 @@ class DisplayNonePropagator extends XMLFilterImpl {
         localName,
         qName,
         Cases.<Attributes, Attributes>withValue(atts)
+            .or(a -> displayNone && NONE.equals(a.getValue(CSS, DISPLAY)), a -> a)
             .or(
                 a -> displayNone,
                 a -> setAttribute(new AttributesImpl(a), CSS, DISPLAY, "css:" + DISPLAY, NONE))
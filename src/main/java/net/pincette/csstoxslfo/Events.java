@@ -0,0 +1,94 @@
+package net.pincette.csstoxslfo;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the conversion. They are only filled in when a recording has
+ * enabled them, so they cost next to nothing otherwise.
+ *
+ * @author Werner Donné
+ */
+class Events {
+  private static final String CATEGORY = "CSSToXSLFO";
+
+  private Events() {}
+
+  @Name("net.pincette.csstoxslfo.AutomatonGeneration")
+  @Label("Automaton Generation")
+  @Category(CATEGORY)
+  @Description("The compilation of the rules that were added since the previous one into a DFA.")
+  static class AutomatonGeneration extends Event {
+    @Label("DFA States")
+    @Description("In lazy mode the other states are created while matching.")
+    int dfaStates;
+
+    @Label("Lazy")
+    boolean lazy;
+
+    @Label("NFA States")
+    int nfaStates;
+
+    @Label("Rules")
+    int rules;
+  }
+
+  @Name("net.pincette.csstoxslfo.DocumentMatching")
+  @Label("Document Matching")
+  @Category(CATEGORY)
+  @Description("The totals of the style matching of a document.")
+  static class DocumentMatching extends Event {
+    @Label("Cascade Time")
+    @Description("The time spent on finding the matching rules and computing the CSS attributes.")
+    @Timespan
+    long cascadeTime;
+
+    @Label("Document")
+    String document;
+
+    @Label("Elements")
+    long elements;
+
+    @Label("Matched Rules")
+    @Description("The matched rules, counted per declaration.")
+    long matchedRules;
+
+    @Label("Shared Style Hits")
+    @Description("The elements that took their style from an earlier one with the same rules.")
+    long sharedStyleHits;
+
+    @Label("Shared Style Lookups")
+    long sharedStyleLookups;
+  }
+
+  @Name("net.pincette.csstoxslfo.MatcherReposition")
+  @Label("Matcher Reposition")
+  @Category(CATEGORY)
+  @Description("The replay of the open elements after a style sheet was added to the document.")
+  static class MatcherReposition extends Event {
+    @Label("Elements")
+    int elements;
+
+    @Label("Rule Index")
+    boolean ruleIndex;
+
+    @Label("Rules")
+    int rules;
+  }
+
+  @Name("net.pincette.csstoxslfo.StyleSheetParse")
+  @Label("Style Sheet Parse")
+  @Category(CATEGORY)
+  @Description("The parsing of a style sheet, including its imports.")
+  static class StyleSheetParse extends Event {
+    @Label("Rules")
+    int rules;
+
+    @Label("URL")
+    String url;
+  }
+}
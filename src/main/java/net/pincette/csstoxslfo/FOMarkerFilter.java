@@ -29,7 +29,8 @@ import org.xml.sax.SAXException;
 import org.xml.sax.helpers.XMLFilterImpl;
 
 /**
- * Moves FO-markers to the next allowed place.
+ * Moves FO-markers to the next allowed place. An FO-marker must be an initial child of an element
+ * that accepts it, so one that follows other elements is moved as well.
  *
  * @author Werner Donné
  */
@@ -46,10 +47,14 @@ class FOMarkerFilter extends XMLFilterImpl {
           TABLE_ROW_GROUP);
 
   private final List<Element> foMarkers = new ArrayList<>();
-  private final Deque<String> stack = new ArrayDeque<>();
+  private final Deque<Parent> stack = new ArrayDeque<>();
 
   FOMarkerFilter() {}
 
+  private static boolean isFOMarker(final String namespaceURI, final String localName) {
+    return Objects.equals(CSS, namespaceURI) && "fo-marker".equals(localName);
+  }
+
   private void accumulateFOMarker(
       final String namespaceURI,
       final String localName,
@@ -72,29 +77,48 @@ class FOMarkerFilter extends XMLFilterImpl {
     foMarkers.clear();
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    foMarkers.clear();
+    stack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
       throws SAXException {
-    final String parentDisplay = stack.isEmpty() ? null : stack.peek();
+    final Parent parent = stack.peek();
+    final boolean foMarker = isFOMarker(namespaceURI, localName);
 
-    if (parentDisplay != null
-        && Objects.equals(CSS, namespaceURI)
-        && "fo-marker".equals(localName)
-        && !ALLOWD_PLACES.contains(parentDisplay)) {
+    if (parent != null
+        && foMarker
+        && (!ALLOWD_PLACES.contains(parent.display) || parent.hasChildren)) {
       accumulateFOMarker(namespaceURI, localName, qName, atts);
     } else {
       super.startElement(namespaceURI, localName, qName, atts);
 
       final String display =
-          parentDisplay != null && parentDisplay.equals(NONE) ? NONE : atts.getValue(CSS, DISPLAY);
+          parent != null && parent.display.equals(NONE) ? NONE : atts.getValue(CSS, DISPLAY);
 
-      if ((!Objects.equals(CSS, namespaceURI) || !"fo-marker".equals(localName))
-          && ALLOWD_PLACES.contains(display)) {
+      if (!foMarker && ALLOWD_PLACES.contains(display)) {
         flushFOMarkers();
       }
 
-      stack.push(ofNullable(display).orElse(""));
+      if (parent != null && !foMarker) {
+        parent.hasChildren = true;
+      }
+
+      stack.push(new Parent(ofNullable(display).orElse("")));
+    }
+  }
+
+  private static class Parent {
+    private final String display;
+    private boolean hasChildren;
+
+    private Parent(final String display) {
+      this.display = display;
     }
   }
 }
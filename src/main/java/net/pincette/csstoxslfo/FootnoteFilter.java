@@ -69,6 +69,12 @@ class FootnoteFilter extends XMLFilterImpl {
     }
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    footnoteReference = null;
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -44,6 +44,12 @@ class ForeignFilter extends XMLFilterImpl {
             .filter(a -> !CSS.equals(a.namespaceURI) && !SPECIF.equals(a.namespaceURI)));
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    stack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
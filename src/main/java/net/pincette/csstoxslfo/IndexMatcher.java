@@ -0,0 +1,350 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.Optional.ofNullable;
+import static net.pincette.css.sac.Condition.SAC_AND_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_CLASS_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ID_CONDITION;
+import static net.pincette.css.sac.DocumentHandler.SAC_NO_URI;
+import static net.pincette.css.sac.Selector.SAC_CHILD_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_CONDITIONAL_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_DESCENDANT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_DIRECT_ADJACENT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_ELEMENT_NODE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_PSEUDO_ELEMENT_SELECTOR;
+import static net.pincette.csstoxslfo.Matcher.DEFAULT_LANGUAGE;
+import static net.pincette.csstoxslfo.Matcher.checkCondition;
+import static net.pincette.csstoxslfo.Matcher.getLanguage;
+import static net.pincette.csstoxslfo.StyleMatcher.mergeRules;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import net.pincette.css.sac.AttributeCondition;
+import net.pincette.css.sac.CombinatorCondition;
+import net.pincette.css.sac.Condition;
+import net.pincette.css.sac.ConditionalSelector;
+import net.pincette.css.sac.DescendantSelector;
+import net.pincette.css.sac.ElementSelector;
+import net.pincette.css.sac.Selector;
+import net.pincette.css.sac.SiblingSelector;
+import net.pincette.csstoxslfo.Matcher.Element;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+
+/**
+ * Finds the matching rules with an index instead of a DFA. The rules are put in buckets by the
+ * rightmost compound selector, which is the one that applies to the element itself. The key is its
+ * ID, its class or its element name, in that order of preference. For an element only the rules in
+ * the buckets of its ID, its classes and its name and the rules with a universal rightmost selector
+ * are tried. The rest of the selector is verified against the element stack.
+ *
+ * <p>There is nothing to generate, which makes it interesting for very large style sheets.
+ *
+ * @author Werner Donné
+ */
+class IndexMatcher implements StyleMatcher {
+  private final Deque<Element> elements = new ArrayDeque<>();
+  private final List<RuleIndex> indexes;
+  private final RuleProfile profile;
+
+  /**
+   * The rules of <code>base</code> are not indexed again. Only the extra <code>rules</code> are,
+   * which are those of the document. When <code>profile</code> is not <code>null</code> the
+   * matching is profiled.
+   */
+  IndexMatcher(final RuleIndex base, final Collection<Rule> rules, final RuleProfile profile) {
+    indexes = rules.isEmpty() ? List.of(base) : List.of(base, new RuleIndex(rules));
+    this.profile = profile;
+
+    if (profile != null) {
+      indexes.forEach(index -> profile.addRules(index.rules));
+    }
+  }
+
+  private static boolean evaluate(
+      final Element element, final Condition condition, final RuleProfile profile) {
+    if (profile != null) {
+      profile.conditionEvaluated(condition);
+    }
+
+    return checkCondition(element, condition);
+  }
+
+  private static Optional<String> findCondition(final Condition c, final short type) {
+    if (c.getConditionType() == type) {
+      return Optional.of(((AttributeCondition) c).getValue());
+    }
+
+    return c.getConditionType() == SAC_AND_CONDITION
+        ? findCondition(((CombinatorCondition) c).getFirstCondition(), type)
+            .or(() -> findCondition(((CombinatorCondition) c).getSecondCondition(), type))
+        : Optional.empty();
+  }
+
+  private static boolean isElement(final Element element) {
+    // The document root has no parent and is never matched.
+
+    return element != null && element.parent != null;
+  }
+
+  private static String localName(final Selector selector) {
+    return switch (selector.getSelectorType()) {
+      case SAC_CONDITIONAL_SELECTOR ->
+          localName(((ConditionalSelector) selector).getSimpleSelector());
+      case SAC_ELEMENT_NODE_SELECTOR -> ((ElementSelector) selector).getLocalName();
+      default -> null;
+    };
+  }
+
+  private static boolean matches(
+      final Selector selector, final Element element, final RuleProfile profile) {
+    return switch (selector.getSelectorType()) {
+      case SAC_CONDITIONAL_SELECTOR ->
+          matches(((ConditionalSelector) selector).getSimpleSelector(), element, profile)
+              && evaluate(element, ((ConditionalSelector) selector).getCondition(), profile);
+      case SAC_CHILD_SELECTOR -> matchesChild((DescendantSelector) selector, element, profile);
+      case SAC_DESCENDANT_SELECTOR ->
+          matchesDescendant((DescendantSelector) selector, element, profile);
+      case SAC_DIRECT_ADJACENT_SELECTOR ->
+          matchesSibling((SiblingSelector) selector, element, profile);
+      case SAC_ELEMENT_NODE_SELECTOR -> matchesElement((ElementSelector) selector, element);
+      default -> false; // Ignore non-CSS2 selector types.
+    };
+  }
+
+  /** A pseudo-element applies to the element that is matched by the ancestor selector. */
+  private static boolean matchesChild(
+      final DescendantSelector selector, final Element element, final RuleProfile profile) {
+    return selector.getSimpleSelector().getSelectorType() == SAC_PSEUDO_ELEMENT_SELECTOR
+        ? matches(selector.getAncestorSelector(), element, profile)
+        : matches(selector.getSimpleSelector(), element, profile)
+            && isElement(element.parent)
+            && matches(selector.getAncestorSelector(), element.parent, profile);
+  }
+
+  private static boolean matchesDescendant(
+      final DescendantSelector selector, final Element element, final RuleProfile profile) {
+    if (!matches(selector.getSimpleSelector(), element, profile)) {
+      return false;
+    }
+
+    for (Element ancestor = element.parent; isElement(ancestor); ancestor = ancestor.parent) {
+      if (matches(selector.getAncestorSelector(), ancestor, profile)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /** This follows the element events of the DFA. Elements without a namespace have "". */
+  private static boolean matchesElement(final ElementSelector selector, final Element element) {
+    final String namespaceURI =
+        "*".equals(selector.getNamespaceURI()) ? null : selector.getNamespaceURI();
+
+    if (selector.getLocalName() == null) {
+      return namespaceURI == null
+          || (!"".equals(element.namespaceURI) && namespaceURI.equals(element.namespaceURI));
+    }
+
+    return selector.getLocalName().equals(element.localName)
+        && (namespaceURI == null
+            || ("".equals(element.namespaceURI)
+                ? SAC_NO_URI.equals(namespaceURI)
+                : namespaceURI.equals(element.namespaceURI)));
+  }
+
+  private static boolean matchesSibling(
+      final SiblingSelector selector, final Element element, final RuleProfile profile) {
+    return matches(selector.getSiblingSelector(), element, profile)
+        && precedingSibling(element)
+            .map(s -> matches(selector.getSelector(), s, profile))
+            .orElse(false);
+  }
+
+  /**
+   * The preceding siblings have ended and are in the child list of the parent. Their index in it is
+   * their position.
+   */
+  private static Optional<Element> precedingSibling(final Element element) {
+    return element.position > 0 && element.parent.children != null
+        ? Optional.of(element.parent.children.get(element.position - 1))
+        : Optional.empty();
+  }
+
+  /** Returns the compound selector that applies to the element itself. */
+  private static Selector subject(final Selector selector) {
+    return switch (selector.getSelectorType()) {
+      case SAC_CHILD_SELECTOR ->
+          ((DescendantSelector) selector).getSimpleSelector().getSelectorType()
+                  == SAC_PSEUDO_ELEMENT_SELECTOR
+              ? subject(((DescendantSelector) selector).getAncestorSelector())
+              : subject(((DescendantSelector) selector).getSimpleSelector());
+      case SAC_DESCENDANT_SELECTOR -> subject(((DescendantSelector) selector).getSimpleSelector());
+      case SAC_DIRECT_ADJACENT_SELECTOR ->
+          subject(((SiblingSelector) selector).getSiblingSelector());
+      default -> selector;
+    };
+  }
+
+  private Stream<Rule> candidates(final Element element) {
+    return indexes.stream().flatMap(index -> index.candidates(element));
+  }
+
+  public void characters(final char[] ch, final int start, final int length) {
+    // Nothing to do.
+  }
+
+  public void endDocument() {
+    // Nothing to do.
+  }
+
+  public void endElement(final String namespaceURI, final String localName, final String qName) {
+    final Element element = elements.pop();
+
+    ofNullable(elements.peek()).ifPresent(e -> e.children.add(element));
+    element.children = null;
+  }
+
+  public void endPrefixMapping(final String prefix) {
+    // Nothing to do.
+  }
+
+  public String getCurrentLanguage() {
+    return !elements.isEmpty() ? elements.peek().language : null;
+  }
+
+  public void ignorableWhitespace(char[] ch, int start, int length) {
+    // Nothing to do.
+  }
+
+  public Collection<Rule> matchingPseudoRules() {
+    return selectRules(rule -> rule.getPseudoElementName() != null);
+  }
+
+  public Collection<Rule> matchingRules() {
+    return selectRules(rule -> rule.getPseudoElementName() == null);
+  }
+
+  public void processingInstruction(final String target, final String data) {
+    // Nothing to do.
+  }
+
+  private Collection<Rule> selectRules(final Predicate<Rule> filter) {
+    return ofNullable(elements.peek())
+        .filter(IndexMatcher::isElement)
+        .map(
+            e ->
+                new ArrayList<>(
+                    mergeRules(
+                        candidates(e)
+                            .filter(filter)
+                            .filter(rule -> matches(rule.getSelector(), e, profile)))))
+        .orElseGet(ArrayList::new);
+  }
+
+  public void setDocumentLocator(final Locator locator) {
+    // Nothing to do.
+  }
+
+  public void skippedEntity(final String name) {
+    // Nothing to do.
+  }
+
+  public void startDocument() {
+    elements.clear();
+
+    final Element root = new Element("", "/");
+
+    root.language = DEFAULT_LANGUAGE;
+    elements.push(root);
+  }
+
+  public void startElement(
+      final String namespaceURI,
+      final String localName,
+      final String qName,
+      final Attributes atts) {
+    final Element element = new Element(namespaceURI, localName);
+
+    element.parent = elements.peek();
+
+    ofNullable(element.parent)
+        .ifPresent(
+            p -> {
+              // The ancestors are checked later, so the caller must not reuse the attributes.
+              element.attributes = atts;
+              element.position = p.children.size();
+              element.language = getLanguage(namespaceURI, atts, p);
+              elements.push(element);
+
+              if (profile != null) {
+                // The conditions are counted when the rules are selected.
+                profile.matched(
+                    candidates(element).filter(rule -> matches(rule.getSelector(), element, null)));
+              }
+            });
+  }
+
+  public void startPrefixMapping(final String prefix, final String uri) {
+    // Nothing to do.
+  }
+
+  /**
+   * The rules put in buckets by the rightmost compound selector. It doesn't change after it has
+   * been built, so the index of the user agent style sheet can be shared by all conversions.
+   */
+  static class RuleIndex {
+    private final Map<String, List<Rule>> byClass = new HashMap<>();
+    private final Map<String, List<Rule>> byId = new HashMap<>();
+    private final Map<String, List<Rule>> byLocalName = new HashMap<>();
+    private final List<Rule> rules;
+    private final List<Rule> universal = new ArrayList<>();
+
+    RuleIndex(final Collection<Rule> rules) {
+      this.rules = new ArrayList<>(rules);
+      rules.forEach(this::index);
+    }
+
+    private Stream<Rule> candidates(final Element element) {
+      final Matcher.AttributeIndex index = element.index();
+
+      return Stream.of(
+              universal.stream(),
+              byLocalName.getOrDefault(element.localName, List.of()).stream(),
+              index.classes.stream().flatMap(c -> byClass.getOrDefault(c, List.of()).stream()),
+              index.ids.stream().flatMap(id -> byId.getOrDefault(id, List.of()).stream()))
+          .flatMap(s -> s);
+    }
+
+    private void index(final Rule rule) {
+      final Selector subject = subject(rule.getSelector());
+      final Optional<Condition> condition =
+          Optional.of(subject)
+              .filter(ConditionalSelector.class::isInstance)
+              .map(s -> ((ConditionalSelector) s).getCondition());
+
+      condition
+          .flatMap(c -> findCondition(c, SAC_ID_CONDITION))
+          .map(id -> byId.computeIfAbsent(id, k -> new ArrayList<>()))
+          .or(
+              () ->
+                  condition
+                      .flatMap(c -> findCondition(c, SAC_CLASS_CONDITION))
+                      .map(c -> byClass.computeIfAbsent(c, k -> new ArrayList<>())))
+          .or(
+              () ->
+                  ofNullable(localName(subject))
+                      .map(name -> byLocalName.computeIfAbsent(name, k -> new ArrayList<>())))
+          .orElse(universal)
+          .add(rule);
+    }
+  }
+}
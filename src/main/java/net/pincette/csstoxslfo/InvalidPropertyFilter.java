@@ -11,6 +11,7 @@ import static net.pincette.xml.sax.Util.reduce;
 
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Predicate;
 import net.pincette.xml.sax.Attribute;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -275,10 +276,13 @@ class InvalidPropertyFilter extends XMLFilterImpl {
     final boolean before = CSS.equals(namespaceURI) && BEFORE.equals(localName);
     final boolean positioned = isPositioned(atts);
 
+    final Predicate<Attribute> valid = a -> isValid(a, display, before, after, positioned);
+
+    // The attributes are only copied when something has to be removed.
     super.startElement(
         namespaceURI,
         localName,
         qName,
-        reduce(attributes(atts).filter(a -> isValid(a, display, before, after, positioned))));
+        attributes(atts).allMatch(valid) ? atts : reduce(attributes(atts).filter(valid)));
   }
 }
@@ -33,8 +33,10 @@ class LengthAdjustFilter extends XMLFilterImpl {
   }
 
   private static Attributes adjustAttributes(final Attributes atts) {
-    return reduce(
-        attributes(atts).map(a -> isAdjustableLength(a) ? a.withValue(addUnit(a.value)) : a));
+    return mustAdjust(atts)
+        ? reduce(
+            attributes(atts).map(a -> isAdjustableLength(a) ? a.withValue(addUnit(a.value)) : a))
+        : atts;
   }
 
   private static boolean isAdjustableLength(final Attribute attribute) {
@@ -43,6 +45,20 @@ class LengthAdjustFilter extends XMLFilterImpl {
         && !EXCLUDE.contains(attribute.localName);
   }
 
+  /** Most elements have no length without a unit, so their attributes are not copied. */
+  private static boolean mustAdjust(final Attributes atts) {
+    for (int i = 0; i < atts.getLength(); ++i) {
+      if (CSS.equals(atts.getURI(i))
+          && isLength(atts.getLocalName(i))
+          && !EXCLUDE.contains(atts.getLocalName(i))
+          && stream(atts.getValue(i).split(" ")).anyMatch(LengthAdjustFilter::mustReplace)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private static boolean mustReplace(final String s) {
     return tryToGetSilent(() -> parseFloat(s)).filter(f -> f > 0).isPresent();
   }
@@ -79,6 +79,12 @@ class LinkFilter extends XMLFilterImpl {
         .orElse(atts);
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    elements.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
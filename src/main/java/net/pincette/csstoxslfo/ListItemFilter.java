@@ -48,6 +48,13 @@ class ListItemFilter extends XMLFilterImpl {
     return stream(reverse(stack)).filter(Objects::nonNull).findFirst();
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    type.clear();
+    url.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
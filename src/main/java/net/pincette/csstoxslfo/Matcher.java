@@ -1,9 +1,10 @@
 package net.pincette.csstoxslfo;
 
-import static java.util.Comparator.comparing;
+import static java.util.Arrays.stream;
 import static java.util.Optional.ofNullable;
+import static java.util.logging.Level.FINEST;
+import static java.util.regex.Pattern.compile;
 import static java.util.stream.Collectors.joining;
-import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toSet;
 import static net.pincette.css.sac.Condition.SAC_AND_CONDITION;
 import static net.pincette.css.sac.Condition.SAC_ATTRIBUTE_CONDITION;
@@ -17,11 +18,11 @@ import static net.pincette.css.sac.Condition.SAC_OR_CONDITION;
 import static net.pincette.css.sac.Condition.SAC_POSITIONAL_CONDITION;
 import static net.pincette.css.sac.Condition.SAC_PSEUDO_CLASS_CONDITION;
 import static net.pincette.css.sac.DocumentHandler.SAC_NO_URI;
-import static net.pincette.csstoxslfo.Compiled.ANY_ELEMENT;
 import static net.pincette.csstoxslfo.Compiled.SIBLING;
 import static net.pincette.csstoxslfo.Constants.XHTML;
 import static net.pincette.csstoxslfo.Property.AFTER;
 import static net.pincette.csstoxslfo.Property.BEFORE;
+import static net.pincette.csstoxslfo.StyleMatcher.mergeRules;
 import static net.pincette.csstoxslfo.Util.ID;
 import static net.pincette.csstoxslfo.Util.LANG;
 import static net.pincette.csstoxslfo.Util.LOGGER;
@@ -31,13 +32,18 @@ import static net.pincette.xml.sax.Util.attributes;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.function.BiPredicate;
 import java.util.function.Function;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 import net.pincette.css.sac.AttributeCondition;
 import net.pincette.css.sac.CombinatorCondition;
 import net.pincette.css.sac.Condition;
@@ -46,23 +52,39 @@ import net.pincette.css.sac.NegativeCondition;
 import net.pincette.css.sac.PositionalCondition;
 import net.pincette.xml.sax.Attribute;
 import org.xml.sax.Attributes;
-import org.xml.sax.ContentHandler;
 import org.xml.sax.Locator;
 import org.xml.sax.SAXException;
 
 /**
- * Finds the matching rules as the document goes through it.
+ * Finds the matching rules as the document goes through it by running the DFA of a compiled style
+ * sheet.
  *
  * @author Werner Donné
  */
-class Matcher implements ContentHandler {
-  private static final String DEFAULT_LANGUAGE = "en-GB";
+class Matcher implements StyleMatcher {
+  static final String DEFAULT_LANGUAGE = "en-GB";
   private static final String FIRST_CHILD = "first-child";
+  private static final int MAX_CACHED_CASCADES = 10000;
+  private static final Pattern WHITESPACE = compile("\\s+");
+  private final Map<String, Map<String, int[]>> elementEvents = new HashMap<>();
   private final Deque<Element> elements = new ArrayDeque<>();
-  private final Compiled.DFAState startState;
-
-  public Matcher(Compiled styleSheet) {
-    startState = styleSheet.startState;
+  private final RuleProfile profile;
+  private final Map<Set<Compiled.DFAState>, List<Rule>> pseudoRuleCache = new HashMap<>();
+  private final Map<Set<Compiled.DFAState>, List<Rule>> ruleCache = new HashMap<>();
+  private final int siblingSymbol;
+  private final List<Compiled.DFAState> startStates;
+  private final Symbols symbols;
+
+  /** When <code>profile</code> is not <code>null</code> the matching is profiled. */
+  Matcher(final Compiled styleSheet, final RuleProfile profile) {
+    startStates = styleSheet.getStartStates();
+    symbols = styleSheet.getSymbols();
+    siblingSymbol = symbols.id(SIBLING);
+    this.profile = profile;
+
+    if (profile != null) {
+      profile.addRules(styleSheet.getRules());
+    }
   }
 
   private static boolean checkAttributeCondition(
@@ -96,7 +118,7 @@ class Matcher implements ContentHandler {
         .orElse(false);
   }
 
-  private static boolean checkCondition(final Element e, final Condition c) {
+  static boolean checkCondition(final Element e, final Condition c) {
     return switch (c.getConditionType()) {
       case SAC_AND_CONDITION ->
           checkCondition(e, ((CombinatorCondition) c).getFirstCondition())
@@ -134,11 +156,7 @@ class Matcher implements ContentHandler {
   }
 
   private static boolean checkPositionalCondition(final Element e, final int position) {
-    // The element on the top of the stack is not yet in the child list of its
-    // parent. The preceding sibling is the last element in the parent's child
-    // list.
-
-    return e.parent.children.size() == position;
+    return e.position == position;
   }
 
   private static boolean checkPseudoClassCondition(final Element e, final AttributeCondition c) {
@@ -147,19 +165,13 @@ class Matcher implements ContentHandler {
         || (FIRST_CHILD.equals(c.getValue()) && checkPositionalCondition(e, 0));
   }
 
-  private static Comparator<Rule> comparator() {
-    return comparing((Rule rule) -> rule.getProperty().getName())
-        .thenComparing(rule -> !rule.getProperty().getImportant() ? 0 : 1)
-        .thenComparing(Rule::getSpecificity)
-        .thenComparing(Rule::getPosition);
-  }
-
-  private static Collection<Compiled.DFAState> getSiblingStates(
-      final Collection<Compiled.DFAState> states) {
-    return states.stream()
-        .map(state -> state.events.get(SIBLING))
-        .filter(Objects::nonNull)
-        .collect(toSet());
+  static String getLanguage(
+      final String namespaceURI, final Attributes attributes, final Element parent) {
+    return tryWith(() -> Objects.equals(XHTML, namespaceURI) ? attributes.getValue(LANG) : null)
+        .or(() -> attributes.getValue("xml:" + LANG))
+        .get()
+        .filter(net.pincette.csstoxslfo.util.Util::isLanguageTag)
+        .orElse(parent.language);
   }
 
   private static boolean hasToken(final String s, final String token) {
@@ -172,52 +184,6 @@ class Matcher implements ContentHandler {
         .orElse(false);
   }
 
-  /**
-   * More than one state transition can occur because when the candidate conditions are fullfilled,
-   * they constitute an event. The universal selector transitions are also tried.
-   */
-  private static void step(final Compiled.DFAState state, final Element element) {
-    stepOneEvent(
-        state,
-        element,
-        ("".equals(element.namespaceURI) ? "*" : element.namespaceURI) + "|" + element.localName);
-
-    if (!"".equals(element.namespaceURI)) {
-      stepOneEvent(state, element, "*|" + element.localName);
-      stepOneEvent(state, element, element.namespaceURI + "|*");
-    } else {
-      stepOneEvent(state, element, SAC_NO_URI + "|" + element.localName);
-    }
-
-    stepOneEvent(state, element, ANY_ELEMENT);
-  }
-
-  private static void stepOneEvent(
-      final Compiled.DFAState state, final Element element, final String name) {
-    ofNullable(state.events.get(name))
-        .ifPresent(
-            nextState -> {
-              traceTransition(state, nextState, name);
-              element.states.add(nextState);
-              stepThroughConditions(nextState, element);
-            });
-  }
-
-  private static void stepStates(
-      final Collection<Compiled.DFAState> states, final Element element) {
-    states.forEach(state -> step(state, element));
-  }
-
-  private static void stepThroughConditions(final Compiled.DFAState state, final Element element) {
-    state.candidateConditions.entrySet().stream()
-        .filter(e -> e.getValue() != null && checkCondition(element, e.getKey()))
-        .forEach(
-            e -> {
-              traceTransition(state, e.getValue(), e.getKey());
-              element.states.add(e.getValue());
-            });
-  }
-
   private static void traceElement(final String qName, final Attributes atts) {
     LOGGER.finest(
         () ->
@@ -238,10 +204,47 @@ class Matcher implements ContentHandler {
                 + (event instanceof Condition c ? Util.conditionText(c) : event.toString()));
   }
 
+  /**
+   * The same set of states recurs for many elements, so the merged rules are kept per set. The
+   * cache doesn't grow beyond a limit, because in lazy mode the states may be transient.
+   */
+  private List<Rule> cachedRules(
+      final Element element,
+      final Function<Compiled.DFAState, List<Rule>> select,
+      final Map<Set<Compiled.DFAState>, List<Rule>> cache) {
+    final Set<Compiled.DFAState> key = element.stateSet();
+    final List<Rule> cached = cache.get(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    final List<Rule> result =
+        mergeRules(element.states.stream().flatMap(state -> select.apply(state).stream()));
+
+    if (cache.size() < MAX_CACHED_CASCADES) {
+      cache.put(key, result);
+    }
+
+    return result;
+  }
+
   public void characters(final char[] ch, final int start, final int length) {
     // Nothing to do.
   }
 
+  /**
+   * The events are cached per matcher and not globally, because the element names come from the
+   * document.
+   */
+  private int[] elementEvents(final String namespaceURI, final String localName) {
+    final String namespace = namespaceURI != null ? namespaceURI : "";
+
+    return elementEvents
+        .computeIfAbsent(namespace, k -> new HashMap<>())
+        .computeIfAbsent(localName, k -> symbols.elementEvents(namespace, localName));
+  }
+
   public void endDocument() {
     // Nothing to do.
   }
@@ -257,43 +260,49 @@ class Matcher implements ContentHandler {
     // Nothing to do.
   }
 
-  String getCurrentLanguage() {
+  private boolean evaluate(final Element element, final Condition condition) {
+    if (profile != null) {
+      profile.conditionEvaluated(condition);
+    }
+
+    return checkCondition(element, condition);
+  }
+
+  public String getCurrentLanguage() {
     return !elements.isEmpty() ? elements.peek().language : null;
   }
 
-  private String getLanguage(
-      final String namespaceURI, final Attributes attributes, final Element parent) {
-    return tryWith(() -> Objects.equals(XHTML, namespaceURI) ? attributes.getValue(LANG) : null)
-        .or(() -> attributes.getValue("xml:" + LANG))
-        .get()
-        .filter(net.pincette.csstoxslfo.util.Util::isLanguageTag)
-        .orElse(parent.language);
+  private Collection<Compiled.DFAState> getSiblingStates(
+      final Collection<Compiled.DFAState> states) {
+    return states.stream()
+        .map(state -> state.expand().events.get(siblingSymbol))
+        .filter(Objects::nonNull)
+        .collect(toSet());
   }
 
   public void ignorableWhitespace(char[] ch, int start, int length) {
     // Nothing to do.
   }
 
-  /** Returns the rules that match a pseudo element sorted from least to most specific. */
-  Collection<Rule> matchingPseudoRules() {
-    return selectRules(s -> s.pseudoRules);
+  public Collection<Rule> matchingPseudoRules() {
+    return selectRules(s -> s.pseudoRules, pseudoRuleCache);
   }
 
-  /** Returns the rules that match a normal element sorted from least to most specific. */
-  Collection<Rule> matchingRules() {
-    return selectRules(s -> s.rules);
+  public Collection<Rule> matchingRules() {
+    return selectRules(s -> s.rules, ruleCache);
   }
 
   public void processingInstruction(final String target, final String data) {
     // Nothing to do.
   }
 
-  private Collection<Rule> selectRules(final Function<Compiled.DFAState, List<Rule>> select) {
-    return ofNullable(elements.peek()).stream()
-        .flatMap(e -> e.states.stream())
-        .flatMap(state -> select.apply(state).stream())
-        .sorted(comparator())
-        .collect(toCollection(ArrayList::new));
+  /** The result is a copy, because the caller may add rules to it. */
+  private Collection<Rule> selectRules(
+      final Function<Compiled.DFAState, List<Rule>> select,
+      final Map<Set<Compiled.DFAState>, List<Rule>> cache) {
+    return ofNullable(elements.peek())
+        .map(e -> new ArrayList<>(cachedRules(e, select, cache)))
+        .orElseGet(ArrayList::new);
   }
 
   public void setDocumentLocator(final Locator locator) {
@@ -307,7 +316,7 @@ class Matcher implements ContentHandler {
   public void startDocument() {
     elements.clear();
 
-    final Element root = new Element("", "/");
+    final Element root = new Element("", "/", elementEvents("", "/"));
 
     root.language = DEFAULT_LANGUAGE;
     elements.push(root);
@@ -316,7 +325,8 @@ class Matcher implements ContentHandler {
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
       throws SAXException {
-    final Element element = new Element(namespaceURI, localName);
+    final Element element =
+        new Element(namespaceURI, localName, elementEvents(namespaceURI, localName));
 
     element.parent = elements.peek();
 
@@ -324,6 +334,7 @@ class Matcher implements ContentHandler {
         .ifPresent(
             p -> {
               element.attributes = atts;
+              element.position = p.children.size();
               element.language = getLanguage(namespaceURI, atts, p);
               elements.push(element);
 
@@ -337,25 +348,139 @@ class Matcher implements ContentHandler {
 
     // At every element new rules can be started, because they are relative.
 
-    step(startState, element);
+    stepStates(startStates, element);
+
+    if (profile != null && element.parent != null) {
+      profile.matched(
+          element.states.stream()
+              .flatMap(state -> Stream.concat(state.rules.stream(), state.pseudoRules.stream())));
+    }
   }
 
   public void startPrefixMapping(final String prefix, final String uri) {
     // Nothing to do.
   }
 
-  private static class Element {
-    private Attributes attributes;
-    private List<Element> children = new ArrayList<>();
-    private String language;
-    private final String localName;
-    private final String namespaceURI;
-    private Element parent;
+  /**
+   * More than one state transition can occur because when the candidate conditions are fullfilled,
+   * they constitute an event. The universal selector transitions are also tried. The event symbols
+   * of the element were looked up once, so nothing is allocated here.
+   */
+  private void step(final Compiled.DFAState from, final Element element) {
+    final Compiled.DFAState state = from.expand();
+
+    for (final int event : element.events) {
+      stepOneEvent(state, element, event);
+    }
+  }
+
+  private void stepOneEvent(
+      final Compiled.DFAState state, final Element element, final int event) {
+    final Compiled.DFAState next = state.events.get(event);
+
+    if (next != null) {
+      final Compiled.DFAState nextState = next.expand();
+
+      if (LOGGER.isLoggable(FINEST)) {
+        traceTransition(state, nextState, symbols.name(event));
+      }
+
+      if (profile != null) {
+        profile.transition();
+      }
+
+      element.states.add(nextState);
+      stepThroughConditions(nextState, element);
+    }
+  }
+
+  private void stepStates(
+      final Collection<Compiled.DFAState> states, final Element element) {
+    states.forEach(state -> step(state, element));
+  }
+
+  private void stepThroughConditions(final Compiled.DFAState state, final Element element) {
+    state.candidateConditions.entrySet().stream()
+        .filter(e -> e.getValue() != null && evaluate(element, e.getKey()))
+        .forEach(
+            e -> {
+              traceTransition(state, e.getValue(), e.getKey());
+              element.states.add(e.getValue());
+
+              if (profile != null) {
+                profile.transition();
+              }
+            });
+  }
+
+  /**
+   * The class tokens and ID values of an element, with which {@link IndexMatcher} selects the
+   * candidate rules. It is built only once per element.
+   */
+  static class AttributeIndex {
+    final Set<String> classes = new HashSet<>();
+    final Set<String> ids = new HashSet<>();
+
+    private AttributeIndex(final Attributes atts) {
+      if (atts != null) {
+        attributes(atts)
+            .forEach(
+                a -> {
+                  if (ID.equals(a.type)) {
+                    ids.add(a.value);
+                  }
+                });
+
+        ofNullable(atts.getValue("class"))
+            .ifPresent(
+                v ->
+                    stream(WHITESPACE.split(v.trim()))
+                        .filter(token -> !token.isEmpty())
+                        .forEach(classes::add));
+      }
+    }
+  }
+
+  /** An element on the stack. It is also used by {@link IndexMatcher}. */
+  static class Element {
+    Attributes attributes;
+    List<Element> children = new ArrayList<>();
+    private final int[] events;
+    private AttributeIndex index;
+    String language;
+    final String localName;
+    final String namespaceURI;
+    Element parent;
+    // The number of preceding siblings.
+    int position;
+    private Set<Compiled.DFAState> stateSet;
     private final List<Compiled.DFAState> states = new ArrayList<>();
 
-    private Element(final String namespaceURI, final String localName) {
+    /** An element without events, for matchers that don't run the DFA. */
+    Element(final String namespaceURI, final String localName) {
+      this(namespaceURI, localName, new int[0]);
+    }
+
+    Element(final String namespaceURI, final String localName, final int[] events) {
       this.namespaceURI = namespaceURI != null ? namespaceURI : "";
       this.localName = localName;
+      this.events = events;
+    }
+
+    AttributeIndex index() {
+      if (index == null) {
+        index = new AttributeIndex(attributes);
+      }
+
+      return index;
+    }
+
+    private Set<Compiled.DFAState> stateSet() {
+      if (stateSet == null) {
+        stateSet = Set.copyOf(states);
+      }
+
+      return stateSet;
     }
   }
 }
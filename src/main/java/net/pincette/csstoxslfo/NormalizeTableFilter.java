@@ -374,6 +374,13 @@ class NormalizeTableFilter extends XMLFilterImpl {
     return Optional.of(elementStack).filter(s -> !s.isEmpty()).map(s -> s.get(s.size() - 1));
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    columnStack.clear();
+    elementStack.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -50,7 +50,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -144,6 +146,7 @@ class PageSetupFilter extends XMLFilterImpl {
   private final Context context;
   private final boolean debug;
   private final List<Element> elements = new ArrayList<>();
+  private final Map<org.w3c.dom.Element, Recording> filteredRegions = new IdentityHashMap<>();
   private final Set<String> includeClassNames;
 
   PageSetupFilter(
@@ -320,21 +323,10 @@ class PageSetupFilter extends XMLFilterImpl {
   private void emitRegion(final org.w3c.dom.Element region, final String flowName)
       throws SAXException {
     final AttributesImpl atts = new AttributesImpl();
-    final XMLFilterImpl filter =
-        new FilterOfFilters(
-            new XMLFilter[] {
-              createPostProjectionFilter(configuration, debug, includeClassNames).get(),
-              new GobbleDocumentEvents()
-              // Give a chance for initialization, but don't interfere
-              // with the chain.
-            });
 
     atts.addAttribute("", FLOW_NAME, FLOW_NAME, CDATA, flowName);
-    filter.setContentHandler(getContentHandler());
-    filter.startDocument();
     super.startElement(XSLFO, STATIC_CONTENT, "fo:" + STATIC_CONTENT, atts);
-    elementToContentHandler(removeWidthAndHeight(region), filter);
-    filter.endDocument();
+    filterRegion(region).replay(getContentHandler());
     super.endElement(XSLFO, STATIC_CONTENT, "fo:" + STATIC_CONTENT);
   }
 
@@ -344,6 +336,7 @@ class PageSetupFilter extends XMLFilterImpl {
     endPrefixMapping("css");
     endPrefixMapping("xh");
     endPrefixMapping("sp");
+    filteredRegions.clear();
     super.endDocument();
   }
 
@@ -369,6 +362,35 @@ class PageSetupFilter extends XMLFilterImpl {
     }
   }
 
+  /**
+   * The same region element is emitted for every page sequence and for several page masters, so
+   * the result of the post-projection filters is kept during the document.
+   */
+  private Recording filterRegion(final org.w3c.dom.Element region) throws SAXException {
+    Recording result = filteredRegions.get(region);
+
+    if (result == null) {
+      final XMLFilterImpl filter =
+          new FilterOfFilters(
+              new XMLFilter[] {
+                // Not instrumented, because the stages of the main chain have the same names.
+                createPostProjectionFilter(configuration, null, debug, includeClassNames).get(),
+                new GobbleDocumentEvents()
+                // Give a chance for initialization, but don't interfere
+                // with the chain.
+              });
+
+      result = new Recording();
+      filter.setContentHandler(result);
+      filter.startDocument();
+      elementToContentHandler(removeWidthAndHeight(region), filter);
+      filter.endDocument();
+      filteredRegions.put(region, result);
+    }
+
+    return result;
+  }
+
   private void generateBodyRegionExtent(final Attributes pageAtts, final Attributes regionAtts)
       throws SAXException {
     super.startElement(
@@ -558,6 +580,8 @@ class PageSetupFilter extends XMLFilterImpl {
 
   @Override
   public void startDocument() throws SAXException {
+    elements.clear();
+    filteredRegions.clear();
     super.startDocument();
     startPrefixMapping("css", CSS);
     startPrefixMapping("xh", XHTML);
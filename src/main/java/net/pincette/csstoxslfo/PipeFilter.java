@@ -0,0 +1,341 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Passes the events to the rest of the chain on another thread, so the stages before and after
+ * this filter run at the same time. The events are recorded in batches, which go through a bounded
+ * queue. The consumer gives the batches back to be reused. The end of the document waits for the
+ * other thread and throws its exception if it failed. When the document fails before its end, the
+ * other thread must be stopped with {@link #abandon}, which waits for it, so the two documents
+ * never reach the rest of the chain at the same time. The locator isn't passed on, because it
+ * belongs to the parsing thread.
+ *
+ * @author Werner Donné
+ */
+class PipeFilter extends XMLFilterImpl {
+  private static final int BATCH_SIZE = 512;
+  private static final int BATCHES = 8;
+  private static final long POLL = 100;
+  private static final long STOP_TIMEOUT = 30_000;
+
+  private Batch batch;
+  private final BlockingQueue<Batch> pool = new ArrayBlockingQueue<>(BATCHES + 2);
+  private Run run;
+
+  PipeFilter() {}
+
+  private static SAXException rethrow(final Exception e) {
+    return e instanceof SAXException s ? s : new SAXException(e);
+  }
+
+  /**
+   * Stops the other thread of a document that didn't reach its end and waits until it has left the
+   * rest of the chain. The batch it is replaying is finished first. Nothing happens when there is
+   * no such document.
+   *
+   * @return <code>false</code> when the other thread is still busy after the timeout.
+   */
+  boolean abandon() {
+    if (run == null) {
+      return true;
+    }
+
+    final Run abandoned = run;
+
+    run = null;
+    batch = null;
+
+    return abandoned.stop();
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException {
+    batch.addCharacters(Batch.CHARACTERS, ch, start, length);
+    flushIfFull();
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    batch.add(Batch.END_DOCUMENT, null, null, null, null);
+    batch.last = true;
+    flush();
+
+    try {
+      run.done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      run.abandoned = true;
+      throw new SAXException(e);
+    } finally {
+      batch = null;
+    }
+
+    final Exception failure = run.failure;
+
+    run = null;
+
+    if (failure != null) {
+      throw rethrow(failure);
+    }
+  }
+
+  @Override
+  public void endElement(final String namespaceURI, final String localName, final String qName)
+      throws SAXException {
+    batch.add(Batch.END_ELEMENT, namespaceURI, localName, qName, null);
+    flushIfFull();
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    batch.add(Batch.END_PREFIX_MAPPING, prefix, null, null, null);
+    flushIfFull();
+  }
+
+  private void flush() throws SAXException {
+    try {
+      while (!run.full.offer(batch, POLL, MILLISECONDS)) {
+        if (run.failure != null) {
+          // The other thread no longer takes batches.
+          break;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      run.abandoned = true;
+      throw new SAXException(e);
+    }
+
+    if (run.failure != null) {
+      throw rethrow(run.failure);
+    }
+
+    batch = newBatch();
+  }
+
+  private void flushIfFull() throws SAXException {
+    if (batch.isFull()) {
+      flush();
+    }
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length)
+      throws SAXException {
+    batch.addCharacters(Batch.IGNORABLE_WHITESPACE, ch, start, length);
+    flushIfFull();
+  }
+
+  private Batch newBatch() {
+    final Batch result = pool.poll();
+
+    return result != null ? result : new Batch();
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    batch.add(Batch.PROCESSING_INSTRUCTION, target, data, null, null);
+    flushIfFull();
+  }
+
+  @Override
+  public void setDocumentLocator(final Locator locator) {
+    // It belongs to the parsing thread.
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    // In case the previous document has failed before its end.
+    if (!abandon()) {
+      throw new SAXException("The previous document is still in the rest of the chain.");
+    }
+
+    run = new Run(getContentHandler());
+    batch = newBatch();
+    batch.add(Batch.START_DOCUMENT, null, null, null, null);
+    run.start();
+  }
+
+  @Override
+  public void startElement(
+      final String namespaceURI, final String localName, final String qName, final Attributes atts)
+      throws SAXException {
+    batch.add(Batch.START_ELEMENT, namespaceURI, localName, qName, atts);
+    flushIfFull();
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+    batch.add(Batch.START_PREFIX_MAPPING, prefix, uri, null, null);
+    flushIfFull();
+  }
+
+  /** A reusable series of events. The attributes and the character buffer are kept. */
+  private static class Batch {
+    private static final byte CHARACTERS = 0;
+    private static final byte END_DOCUMENT = 1;
+    private static final byte END_ELEMENT = 2;
+    private static final byte END_PREFIX_MAPPING = 3;
+    private static final byte IGNORABLE_WHITESPACE = 4;
+    private static final byte PROCESSING_INSTRUCTION = 5;
+    private static final byte START_DOCUMENT = 6;
+    private static final byte START_ELEMENT = 7;
+    private static final byte START_PREFIX_MAPPING = 8;
+
+    private final AttributesImpl[] atts = new AttributesImpl[BATCH_SIZE];
+    private char[] chars = new char[BATCH_SIZE * 16];
+    private int charsLength;
+    private boolean last;
+    private int length;
+    private final int[] lengths = new int[BATCH_SIZE];
+    private final String[] names1 = new String[BATCH_SIZE];
+    private final String[] names2 = new String[BATCH_SIZE];
+    private final String[] names3 = new String[BATCH_SIZE];
+    private final int[] offsets = new int[BATCH_SIZE];
+    private final byte[] types = new byte[BATCH_SIZE];
+
+    private void add(
+        final byte type,
+        final String name1,
+        final String name2,
+        final String name3,
+        final Attributes attributes) {
+      types[length] = type;
+      names1[length] = name1;
+      names2[length] = name2;
+      names3[length] = name3;
+
+      if (attributes != null) {
+        if (atts[length] == null) {
+          atts[length] = new AttributesImpl(attributes);
+        } else {
+          atts[length].setAttributes(attributes);
+        }
+      }
+
+      ++length;
+    }
+
+    private void addCharacters(final byte type, final char[] ch, final int start, final int size) {
+      if (charsLength + size > chars.length) {
+        chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charsLength + size));
+      }
+
+      System.arraycopy(ch, start, chars, charsLength, size);
+      offsets[length] = charsLength;
+      lengths[length] = size;
+      charsLength += size;
+      add(type, null, null, null, null);
+    }
+
+    private void clear() {
+      Arrays.fill(names1, 0, length, null);
+      Arrays.fill(names2, 0, length, null);
+      Arrays.fill(names3, 0, length, null);
+      charsLength = 0;
+      last = false;
+      length = 0;
+    }
+
+    private boolean isFull() {
+      return length == BATCH_SIZE;
+    }
+
+    private void replay(final ContentHandler handler) throws SAXException {
+      for (int i = 0; i < length; ++i) {
+        switch (types[i]) {
+          case CHARACTERS -> handler.characters(chars, offsets[i], lengths[i]);
+          case END_DOCUMENT -> handler.endDocument();
+          case END_ELEMENT -> handler.endElement(names1[i], names2[i], names3[i]);
+          case END_PREFIX_MAPPING -> handler.endPrefixMapping(names1[i]);
+          case IGNORABLE_WHITESPACE -> handler.ignorableWhitespace(chars, offsets[i], lengths[i]);
+          case PROCESSING_INSTRUCTION -> handler.processingInstruction(names1[i], names2[i]);
+          case START_DOCUMENT -> handler.startDocument();
+          case START_ELEMENT -> handler.startElement(names1[i], names2[i], names3[i], atts[i]);
+          default -> handler.startPrefixMapping(names1[i], names2[i]);
+        }
+      }
+    }
+  }
+
+  /** The consuming side of one document. */
+  private class Run {
+    private volatile boolean abandoned;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile Exception failure;
+    private final BlockingQueue<Batch> full = new ArrayBlockingQueue<>(BATCHES);
+    private final ContentHandler handler;
+
+    private Run(final ContentHandler handler) {
+      this.handler = handler;
+    }
+
+    private void consume() {
+      try {
+        while (!abandoned) {
+          final Batch next = full.poll(POLL, MILLISECONDS);
+
+          if (next != null) {
+            final boolean last = next.last;
+
+            replay(next);
+            next.clear();
+            pool.offer(next);
+
+            if (last) {
+              return;
+            }
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        failure = e;
+      } finally {
+        done.countDown();
+      }
+    }
+
+    /** After a failure the batches are still taken, so the producer doesn't block. */
+    private void replay(final Batch next) {
+      if (failure == null) {
+        try {
+          next.replay(handler);
+        } catch (Exception e) {
+          failure = e;
+        }
+      }
+    }
+
+    private void start() {
+      final Thread thread = new Thread(this::consume, "csstoxslfo-pipe");
+
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private boolean stop() {
+      abandoned = true;
+
+      try {
+        return done.await(STOP_TIMEOUT, MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+
+        return false;
+      }
+    }
+  }
+}
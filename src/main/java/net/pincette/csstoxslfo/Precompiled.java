@@ -0,0 +1,946 @@
+package net.pincette.csstoxslfo;
+
+import static net.pincette.css.sac.Condition.SAC_AND_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ATTRIBUTE_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_CLASS_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_CONTENT_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ID_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_LANG_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_NEGATIVE_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ONE_OF_ATTRIBUTE_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ONLY_CHILD_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_ONLY_TYPE_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_OR_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_POSITIONAL_CONDITION;
+import static net.pincette.css.sac.Condition.SAC_PSEUDO_CLASS_CONDITION;
+import static net.pincette.css.sac.LexicalUnit.SAC_ATTR;
+import static net.pincette.css.sac.LexicalUnit.SAC_COUNTERS_FUNCTION;
+import static net.pincette.css.sac.LexicalUnit.SAC_COUNTER_FUNCTION;
+import static net.pincette.css.sac.LexicalUnit.SAC_FUNCTION;
+import static net.pincette.css.sac.LexicalUnit.SAC_IDENT;
+import static net.pincette.css.sac.LexicalUnit.SAC_INHERIT;
+import static net.pincette.css.sac.LexicalUnit.SAC_INTEGER;
+import static net.pincette.css.sac.LexicalUnit.SAC_RECT_FUNCTION;
+import static net.pincette.css.sac.LexicalUnit.SAC_RGBCOLOR;
+import static net.pincette.css.sac.LexicalUnit.SAC_STRING_VALUE;
+import static net.pincette.css.sac.LexicalUnit.SAC_SUB_EXPRESSION;
+import static net.pincette.css.sac.LexicalUnit.SAC_UNICODERANGE;
+import static net.pincette.css.sac.LexicalUnit.SAC_URI;
+import static net.pincette.css.sac.Selector.SAC_CHILD_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_CONDITIONAL_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_DESCENDANT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_DIRECT_ADJACENT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_ELEMENT_NODE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_NEGATIVE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_PSEUDO_ELEMENT_SELECTOR;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import net.pincette.css.sac.AttributeCondition;
+import net.pincette.css.sac.CombinatorCondition;
+import net.pincette.css.sac.Condition;
+import net.pincette.css.sac.ConditionalSelector;
+import net.pincette.css.sac.ContentCondition;
+import net.pincette.css.sac.DescendantSelector;
+import net.pincette.css.sac.ElementSelector;
+import net.pincette.css.sac.LangCondition;
+import net.pincette.css.sac.LexicalUnit;
+import net.pincette.css.sac.NegativeCondition;
+import net.pincette.css.sac.NegativeSelector;
+import net.pincette.css.sac.PositionalCondition;
+import net.pincette.css.sac.Selector;
+import net.pincette.css.sac.SiblingSelector;
+import net.pincette.css.sac.SimpleSelector;
+import net.pincette.util.Util.GeneralException;
+
+/**
+ * The binary form of a compiled initial style sheet. It contains the generated DFA, the rules with
+ * their selectors and property values and the page rules. Loading it avoids CSS parsing and the
+ * subset construction. The SAC objects are restored with the small implementations in this class.
+ * Only a DFA that was generated eagerly can be written.
+ *
+ * @author Werner Donné
+ */
+class Precompiled {
+  private static final int MAGIC = 0x43535346;
+  private static final int VERSION = 1;
+
+  private Precompiled() {}
+
+  private static void collectStates(
+      final Compiled.DFAState start,
+      final Map<Compiled.DFAState, Integer> states,
+      final Map<Rule, Integer> rules) {
+    final Deque<Compiled.DFAState> pending = new ArrayDeque<>();
+
+    pending.push(start);
+
+    while (!pending.isEmpty()) {
+      final Compiled.DFAState state = pending.pop();
+
+      if (!states.containsKey(state)) {
+        states.put(state, states.size());
+        state.rules.forEach(rule -> rules.putIfAbsent(rule, rules.size()));
+        state.pseudoRules.forEach(rule -> rules.putIfAbsent(rule, rules.size()));
+
+        for (final int event : state.events.keys()) {
+          pending.push(state.events.get(event));
+        }
+
+        pending.addAll(state.candidateConditions.values());
+      }
+    }
+  }
+
+  /**
+   * Reads a precompiled style sheet. The DFA segments are added to <code>compiled</code>.
+   *
+   * @param in the input stream, which is not closed.
+   * @param compiled the compiled style sheet that receives the DFA. It should be empty.
+   * @param pageRules the map that receives the page rules.
+   * @return The position that should be used for the first rule after the initial style sheet.
+   */
+  static int read(
+      final InputStream in, final Compiled compiled, final Map<String, PageRule> pageRules)
+      throws IOException {
+    final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+
+    if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+      throw new IOException("This is not a precompiled style sheet of the right version.");
+    }
+
+    final int lastRulePosition = data.readInt();
+    final Rule[] rules = new Rule[data.readInt()];
+
+    for (int i = 0; i < rules.length; ++i) {
+      rules[i] = readRule(data);
+    }
+
+    compiled.addRestoredRules(List.of(rules));
+
+    final Compiled.DFAState[] states = new Compiled.DFAState[data.readInt()];
+
+    for (int i = 0; i < states.length; ++i) {
+      states[i] = compiled.createState();
+    }
+
+    for (final Compiled.DFAState state : states) {
+      readState(data, state, states, rules, compiled.getSymbols());
+    }
+
+    final int segments = data.readInt();
+
+    for (int i = 0; i < segments; ++i) {
+      compiled.addSegment(states[data.readInt()]);
+    }
+
+    final int pageRuleCount = data.readInt();
+
+    for (int i = 0; i < pageRuleCount; ++i) {
+      final PageRule pageRule = readPageRule(data);
+
+      pageRules.put(pageRule.getName(), pageRule);
+    }
+
+    return lastRulePosition;
+  }
+
+  private static Condition readCondition(final DataInputStream in) throws IOException {
+    final short type = in.readShort();
+
+    return switch (type) {
+      case SAC_AND_CONDITION, SAC_OR_CONDITION ->
+          new CombinatorConditionImpl(type, readCondition(in), readCondition(in));
+      case SAC_ATTRIBUTE_CONDITION,
+          SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION,
+          SAC_CLASS_CONDITION,
+          SAC_ID_CONDITION,
+          SAC_ONE_OF_ATTRIBUTE_CONDITION,
+          SAC_PSEUDO_CLASS_CONDITION ->
+          new AttributeConditionImpl(
+              type, readString(in), readString(in), in.readBoolean(), readString(in));
+      case SAC_CONTENT_CONDITION -> new ContentConditionImpl(readString(in));
+      case SAC_LANG_CONDITION -> new LangConditionImpl(readString(in));
+      case SAC_NEGATIVE_CONDITION -> new NegativeConditionImpl(readCondition(in));
+      case SAC_POSITIONAL_CONDITION ->
+          new PositionalConditionImpl(in.readInt(), in.readBoolean(), in.readBoolean());
+      default -> new ConditionImpl(type);
+    };
+  }
+
+  private static LexicalUnit readLexicalUnits(final DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    LexicalUnitImpl first = null;
+    LexicalUnitImpl previous = null;
+
+    for (int i = 0; i < length; ++i) {
+      final LexicalUnitImpl unit = readLexicalUnit(in);
+
+      unit.previous = previous;
+
+      if (previous != null) {
+        previous.next = unit;
+      } else {
+        first = unit;
+      }
+
+      previous = unit;
+    }
+
+    return first;
+  }
+
+  private static LexicalUnitImpl readLexicalUnit(final DataInputStream in) throws IOException {
+    final LexicalUnitImpl unit = new LexicalUnitImpl(in.readShort());
+
+    switch (unit.type) {
+      case SAC_INTEGER:
+        unit.integerValue = in.readInt();
+        break;
+      case SAC_COUNTER_FUNCTION,
+          SAC_COUNTERS_FUNCTION,
+          SAC_FUNCTION,
+          SAC_RECT_FUNCTION,
+          SAC_RGBCOLOR:
+        unit.functionName = readString(in);
+        unit.parameters = readLexicalUnits(in);
+        break;
+      case SAC_ATTR, SAC_IDENT, SAC_INHERIT, SAC_STRING_VALUE, SAC_UNICODERANGE, SAC_URI:
+        unit.stringValue = readString(in);
+        break;
+      case SAC_SUB_EXPRESSION:
+        unit.subValues = readLexicalUnits(in);
+        break;
+      default:
+        unit.floatValue = in.readFloat();
+        unit.dimensionUnitText = readString(in);
+        break;
+    }
+
+    return unit;
+  }
+
+  private static PageRule readPageRule(final DataInputStream in) throws IOException {
+    final PageRule pageRule = new PageRule(in.readUTF());
+
+    readProperties(in, pageRule);
+
+    final int marginBoxes = in.readInt();
+
+    for (int i = 0; i < marginBoxes; ++i) {
+      final PageRule.MarginBox box = new PageRule.MarginBox(in.readUTF());
+
+      readProperties(in, box);
+      pageRule.addMarginBox(box);
+    }
+
+    return pageRule;
+  }
+
+  private static void readProperties(final DataInputStream in, final PropertyContainer container)
+      throws IOException {
+    final int length = in.readInt();
+
+    for (int i = 0; i < length; ++i) {
+      container.setProperty(readProperty(in));
+    }
+  }
+
+  private static Property readProperty(final DataInputStream in) throws IOException {
+    final String name = in.readUTF();
+    final boolean important = in.readBoolean();
+    final String baseUrl = readString(in);
+    final Map<String, String> prefixMap = readStringMap(in);
+
+    return in.readBoolean()
+        ? new Property(
+            name,
+            readLexicalUnits(in),
+            important,
+            prefixMap,
+            baseUrl != null ? new URL(baseUrl) : null)
+        : new Property(name, readString(in), important, prefixMap);
+  }
+
+  private static Rule readRule(final DataInputStream in) throws IOException {
+    final Rule rule = new Rule(readSelector(in), in.readInt(), in.readInt(), readString(in));
+    final int length = in.readInt();
+
+    for (int i = 0; i < length; ++i) {
+      rule.addProperty(readProperty(in));
+    }
+
+    return rule;
+  }
+
+  private static List<Rule> readRules(final DataInputStream in, final Rule[] rules)
+      throws IOException {
+    final int length = in.readInt();
+    final List<Rule> result = new ArrayList<>(length);
+
+    for (int i = 0; i < length; ++i) {
+      result.add(rules[in.readInt()]);
+    }
+
+    return result;
+  }
+
+  private static Selector readSelector(final DataInputStream in) throws IOException {
+    final short type = in.readShort();
+
+    return switch (type) {
+      case SAC_CHILD_SELECTOR, SAC_DESCENDANT_SELECTOR ->
+          new DescendantSelectorImpl(type, readSelector(in), (SimpleSelector) readSelector(in));
+      case SAC_CONDITIONAL_SELECTOR ->
+          new ConditionalSelectorImpl((SimpleSelector) readSelector(in), readCondition(in));
+      case SAC_DIRECT_ADJACENT_SELECTOR ->
+          new SiblingSelectorImpl(
+              in.readShort(), readSelector(in), (SimpleSelector) readSelector(in));
+      case SAC_ELEMENT_NODE_SELECTOR, SAC_PSEUDO_ELEMENT_SELECTOR ->
+          new ElementSelectorImpl(type, readString(in), readString(in));
+      case SAC_NEGATIVE_SELECTOR -> new NegativeSelectorImpl((SimpleSelector) readSelector(in));
+      default -> throw new IOException("Unsupported selector type " + type);
+    };
+  }
+
+  private static void readState(
+      final DataInputStream in,
+      final Compiled.DFAState state,
+      final Compiled.DFAState[] states,
+      final Rule[] rules,
+      final Symbols symbols)
+      throws IOException {
+    state.rules.addAll(readRules(in, rules));
+    state.pseudoRules.addAll(readRules(in, rules));
+
+    final int events = in.readInt();
+
+    for (int i = 0; i < events; ++i) {
+      state.events.put(symbols.id(in.readUTF()), states[in.readInt()]);
+    }
+
+    final int conditions = in.readInt();
+
+    for (int i = 0; i < conditions; ++i) {
+      state.candidateConditions.put(readCondition(in), states[in.readInt()]);
+    }
+
+    state.events.freeze();
+  }
+
+  private static String readString(final DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private static Map<String, String> readStringMap(final DataInputStream in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+
+    final int length = in.readInt();
+    final Map<String, String> result = new HashMap<>();
+
+    for (int i = 0; i < length; ++i) {
+      result.put(in.readUTF(), in.readUTF());
+    }
+
+    return result;
+  }
+
+  /**
+   * Writes a compiled style sheet in binary form.
+   *
+   * @param compiled the compiled style sheet. Its DFA should have been generated eagerly.
+   * @param lastRulePosition the position that should be used for the first rule after the style
+   *     sheet.
+   * @param pageRules the page rules of the style sheet.
+   * @param out the output stream, which is flushed but not closed.
+   */
+  static void write(
+      final Compiled compiled,
+      final int lastRulePosition,
+      final Map<String, PageRule> pageRules,
+      final OutputStream out)
+      throws IOException {
+    final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+    final Map<Compiled.DFAState, Integer> states = new IdentityHashMap<>();
+    final Map<Rule, Integer> rules = new IdentityHashMap<>();
+
+    compiled.getStartStates().forEach(state -> collectStates(state.expand(), states, rules));
+    data.writeInt(MAGIC);
+    data.writeInt(VERSION);
+    data.writeInt(lastRulePosition);
+    data.writeInt(rules.size());
+
+    for (final Rule rule : ordered(rules)) {
+      writeRule(data, rule);
+    }
+
+    data.writeInt(states.size());
+
+    for (final Compiled.DFAState state : ordered(states)) {
+      writeState(data, state, states, rules, compiled.getSymbols());
+    }
+
+    data.writeInt(compiled.getStartStates().size());
+
+    for (final Compiled.DFAState state : compiled.getStartStates()) {
+      data.writeInt(states.get(state));
+    }
+
+    data.writeInt(pageRules.size());
+
+    for (final PageRule pageRule : pageRules.values()) {
+      writePageRule(data, pageRule);
+    }
+
+    data.flush();
+  }
+
+  private static <T> List<T> ordered(final Map<T, Integer> indexes) {
+    final List<T> result = new ArrayList<>(indexes.keySet());
+
+    result.sort((o1, o2) -> indexes.get(o1) - indexes.get(o2));
+
+    return result;
+  }
+
+  private static void writeCondition(final DataOutputStream out, final Condition condition)
+      throws IOException {
+    out.writeShort(condition.getConditionType());
+
+    switch (condition.getConditionType()) {
+      case SAC_AND_CONDITION, SAC_OR_CONDITION:
+        writeCondition(out, ((CombinatorCondition) condition).getFirstCondition());
+        writeCondition(out, ((CombinatorCondition) condition).getSecondCondition());
+        break;
+      case SAC_ATTRIBUTE_CONDITION,
+          SAC_BEGIN_HYPHEN_ATTRIBUTE_CONDITION,
+          SAC_CLASS_CONDITION,
+          SAC_ID_CONDITION,
+          SAC_ONE_OF_ATTRIBUTE_CONDITION,
+          SAC_PSEUDO_CLASS_CONDITION:
+        final AttributeCondition attribute = (AttributeCondition) condition;
+
+        writeString(out, attribute.getNamespaceURI());
+        writeString(out, attribute.getLocalName());
+        out.writeBoolean(attribute.getSpecified());
+        writeString(out, attribute.getValue());
+        break;
+      case SAC_CONTENT_CONDITION:
+        writeString(out, ((ContentCondition) condition).getData());
+        break;
+      case SAC_LANG_CONDITION:
+        writeString(out, ((LangCondition) condition).getLang());
+        break;
+      case SAC_NEGATIVE_CONDITION:
+        writeCondition(out, ((NegativeCondition) condition).getCondition());
+        break;
+      case SAC_POSITIONAL_CONDITION:
+        final PositionalCondition positional = (PositionalCondition) condition;
+
+        out.writeInt(positional.getPosition());
+        out.writeBoolean(positional.getTypeNode());
+        out.writeBoolean(positional.getType());
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void writeLexicalUnits(final DataOutputStream out, final LexicalUnit unit)
+      throws IOException {
+    final List<LexicalUnit> units = new ArrayList<>();
+
+    for (LexicalUnit u = unit; u != null; u = u.getNextLexicalUnit()) {
+      units.add(u);
+    }
+
+    out.writeInt(units.size());
+
+    for (final LexicalUnit u : units) {
+      writeLexicalUnit(out, u);
+    }
+  }
+
+  private static void writeLexicalUnit(final DataOutputStream out, final LexicalUnit unit)
+      throws IOException {
+    out.writeShort(unit.getLexicalUnitType());
+
+    switch (unit.getLexicalUnitType()) {
+      case SAC_INTEGER:
+        out.writeInt(unit.getIntegerValue());
+        break;
+      case SAC_COUNTER_FUNCTION,
+          SAC_COUNTERS_FUNCTION,
+          SAC_FUNCTION,
+          SAC_RECT_FUNCTION,
+          SAC_RGBCOLOR:
+        writeString(out, unit.getFunctionName());
+        writeLexicalUnits(out, unit.getParameters());
+        break;
+      case SAC_ATTR, SAC_IDENT, SAC_INHERIT, SAC_STRING_VALUE, SAC_UNICODERANGE, SAC_URI:
+        writeString(out, unit.getStringValue());
+        break;
+      case SAC_SUB_EXPRESSION:
+        writeLexicalUnits(out, unit.getSubValues());
+        break;
+      default:
+        out.writeFloat(unit.getFloatValue());
+        writeString(out, unit.getDimensionUnitText());
+        break;
+    }
+  }
+
+  private static void writePageRule(final DataOutputStream out, final PageRule pageRule)
+      throws IOException {
+    out.writeUTF(pageRule.getName());
+    writeProperties(out, pageRule.getProperties());
+    out.writeInt(pageRule.getMarginBoxes().length);
+
+    for (final PageRule.MarginBox box : pageRule.getMarginBoxes()) {
+      out.writeUTF(box.getName());
+      writeProperties(out, box.getProperties());
+    }
+  }
+
+  private static void writeProperties(final DataOutputStream out, final Property[] properties)
+      throws IOException {
+    out.writeInt(properties.length);
+
+    for (final Property property : properties) {
+      writeProperty(out, property);
+    }
+  }
+
+  private static void writeProperty(final DataOutputStream out, final Property property)
+      throws IOException {
+    out.writeUTF(property.getName());
+    out.writeBoolean(property.getImportant());
+    writeString(out, property.getBaseUrl() != null ? property.getBaseUrl().toString() : null);
+    writeStringMap(out, property.getPrefixMap());
+    out.writeBoolean(property.getLexicalUnit() != null);
+
+    if (property.getLexicalUnit() != null) {
+      writeLexicalUnits(out, property.getLexicalUnit());
+    } else {
+      writeString(out, property.getOriginalValue());
+    }
+  }
+
+  private static void writeRule(final DataOutputStream out, final Rule rule) throws IOException {
+    writeSelector(out, rule.getSelector());
+    out.writeInt(rule.getPosition());
+    out.writeInt(rule.getSpecificity());
+    writeString(out, rule.getPseudoElementName());
+    writeProperties(out, rule.getProperties());
+  }
+
+  private static void writeRules(
+      final DataOutputStream out, final List<Rule> list, final Map<Rule, Integer> rules)
+      throws IOException {
+    out.writeInt(list.size());
+
+    for (final Rule rule : list) {
+      out.writeInt(rules.get(rule));
+    }
+  }
+
+  private static void writeSelector(final DataOutputStream out, final Selector selector)
+      throws IOException {
+    out.writeShort(selector.getSelectorType());
+
+    switch (selector.getSelectorType()) {
+      case SAC_CHILD_SELECTOR, SAC_DESCENDANT_SELECTOR:
+        writeSelector(out, ((DescendantSelector) selector).getAncestorSelector());
+        writeSelector(out, ((DescendantSelector) selector).getSimpleSelector());
+        break;
+      case SAC_CONDITIONAL_SELECTOR:
+        writeSelector(out, ((ConditionalSelector) selector).getSimpleSelector());
+        writeCondition(out, ((ConditionalSelector) selector).getCondition());
+        break;
+      case SAC_DIRECT_ADJACENT_SELECTOR:
+        out.writeShort(((SiblingSelector) selector).getNodeType());
+        writeSelector(out, ((SiblingSelector) selector).getSelector());
+        writeSelector(out, ((SiblingSelector) selector).getSiblingSelector());
+        break;
+      case SAC_ELEMENT_NODE_SELECTOR, SAC_PSEUDO_ELEMENT_SELECTOR:
+        writeString(out, ((ElementSelector) selector).getNamespaceURI());
+        writeString(out, ((ElementSelector) selector).getLocalName());
+        break;
+      case SAC_NEGATIVE_SELECTOR:
+        writeSelector(out, ((NegativeSelector) selector).getSimpleSelector());
+        break;
+      default:
+        throw new GeneralException("Unsupported selector type " + selector.getSelectorType());
+    }
+  }
+
+  private static void writeState(
+      final DataOutputStream out,
+      final Compiled.DFAState state,
+      final Map<Compiled.DFAState, Integer> states,
+      final Map<Rule, Integer> rules,
+      final Symbols symbols)
+      throws IOException {
+    writeRules(out, state.rules, rules);
+    writeRules(out, state.pseudoRules, rules);
+    out.writeInt(state.events.size());
+
+    for (final int event : state.events.keys()) {
+      out.writeUTF(symbols.name(event));
+      out.writeInt(states.get(state.events.get(event)));
+    }
+
+    out.writeInt(state.candidateConditions.size());
+
+    for (final Entry<Condition, Compiled.DFAState> entry : state.candidateConditions.entrySet()) {
+      writeCondition(out, entry.getKey());
+      out.writeInt(states.get(entry.getValue()));
+    }
+  }
+
+  private static void writeString(final DataOutputStream out, final String s) throws IOException {
+    out.writeBoolean(s != null);
+
+    if (s != null) {
+      out.writeUTF(s);
+    }
+  }
+
+  private static void writeStringMap(final DataOutputStream out, final Map<String, String> map)
+      throws IOException {
+    out.writeBoolean(map != null);
+
+    if (map != null) {
+      out.writeInt(map.size());
+
+      for (final Entry<String, String> entry : map.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeUTF(entry.getValue());
+      }
+    }
+  }
+
+  // The restored SAC objects have identity semantics, like those of the parser, because equal
+  // conditions of different rules should remain separate keys in the DFA.
+
+  private static class AttributeConditionImpl extends ConditionImpl implements AttributeCondition {
+    private final String localName;
+    private final String namespaceURI;
+    private final boolean specified;
+    private final String value;
+
+    private AttributeConditionImpl(
+        final short type,
+        final String namespaceURI,
+        final String localName,
+        final boolean specified,
+        final String value) {
+      super(type);
+      this.namespaceURI = namespaceURI;
+      this.localName = localName;
+      this.specified = specified;
+      this.value = value;
+    }
+
+    public String getLocalName() {
+      return localName;
+    }
+
+    public String getNamespaceURI() {
+      return namespaceURI;
+    }
+
+    public boolean getSpecified() {
+      return specified;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  private static class CombinatorConditionImpl extends ConditionImpl
+      implements CombinatorCondition {
+    private final Condition first;
+    private final Condition second;
+
+    private CombinatorConditionImpl(
+        final short type, final Condition first, final Condition second) {
+      super(type);
+      this.first = first;
+      this.second = second;
+    }
+
+    public Condition getFirstCondition() {
+      return first;
+    }
+
+    public Condition getSecondCondition() {
+      return second;
+    }
+  }
+
+  private static class ConditionImpl implements Condition {
+    private final short type;
+
+    private ConditionImpl(final short type) {
+      this.type = type;
+    }
+
+    public short getConditionType() {
+      return type;
+    }
+  }
+
+  private static class ConditionalSelectorImpl extends SelectorImpl
+      implements ConditionalSelector {
+    private final Condition condition;
+    private final SimpleSelector simpleSelector;
+
+    private ConditionalSelectorImpl(
+        final SimpleSelector simpleSelector, final Condition condition) {
+      super(SAC_CONDITIONAL_SELECTOR);
+      this.simpleSelector = simpleSelector;
+      this.condition = condition;
+    }
+
+    public Condition getCondition() {
+      return condition;
+    }
+
+    public SimpleSelector getSimpleSelector() {
+      return simpleSelector;
+    }
+  }
+
+  private static class ContentConditionImpl extends ConditionImpl implements ContentCondition {
+    private final String data;
+
+    private ContentConditionImpl(final String data) {
+      super(SAC_CONTENT_CONDITION);
+      this.data = data;
+    }
+
+    public String getData() {
+      return data;
+    }
+  }
+
+  private static class DescendantSelectorImpl extends SelectorImpl implements DescendantSelector {
+    private final Selector ancestorSelector;
+    private final SimpleSelector simpleSelector;
+
+    private DescendantSelectorImpl(
+        final short type, final Selector ancestorSelector, final SimpleSelector simpleSelector) {
+      super(type);
+      this.ancestorSelector = ancestorSelector;
+      this.simpleSelector = simpleSelector;
+    }
+
+    public Selector getAncestorSelector() {
+      return ancestorSelector;
+    }
+
+    public SimpleSelector getSimpleSelector() {
+      return simpleSelector;
+    }
+  }
+
+  private static class ElementSelectorImpl extends SelectorImpl implements ElementSelector {
+    private final String localName;
+    private final String namespaceURI;
+
+    private ElementSelectorImpl(
+        final short type, final String namespaceURI, final String localName) {
+      super(type);
+      this.namespaceURI = namespaceURI;
+      this.localName = localName;
+    }
+
+    public String getLocalName() {
+      return localName;
+    }
+
+    public String getNamespaceURI() {
+      return namespaceURI;
+    }
+  }
+
+  private static class LangConditionImpl extends ConditionImpl implements LangCondition {
+    private final String lang;
+
+    private LangConditionImpl(final String lang) {
+      super(SAC_LANG_CONDITION);
+      this.lang = lang;
+    }
+
+    public String getLang() {
+      return lang;
+    }
+  }
+
+  private static class LexicalUnitImpl implements LexicalUnit {
+    private String dimensionUnitText;
+    private float floatValue;
+    private String functionName;
+    private int integerValue;
+    private LexicalUnit next;
+    private LexicalUnit parameters;
+    private LexicalUnit previous;
+    private String stringValue;
+    private LexicalUnit subValues;
+    private final short type;
+
+    private LexicalUnitImpl(final short type) {
+      this.type = type;
+    }
+
+    public String getDimensionUnitText() {
+      return dimensionUnitText;
+    }
+
+    public float getFloatValue() {
+      return floatValue;
+    }
+
+    public String getFunctionName() {
+      return functionName;
+    }
+
+    public int getIntegerValue() {
+      return integerValue;
+    }
+
+    public short getLexicalUnitType() {
+      return type;
+    }
+
+    public LexicalUnit getNextLexicalUnit() {
+      return next;
+    }
+
+    public LexicalUnit getParameters() {
+      return parameters;
+    }
+
+    public LexicalUnit getPreviousLexicalUnit() {
+      return previous;
+    }
+
+    public String getStringValue() {
+      return stringValue;
+    }
+
+    public LexicalUnit getSubValues() {
+      return subValues;
+    }
+  }
+
+  private static class NegativeConditionImpl extends ConditionImpl implements NegativeCondition {
+    private final Condition condition;
+
+    private NegativeConditionImpl(final Condition condition) {
+      super(SAC_NEGATIVE_CONDITION);
+      this.condition = condition;
+    }
+
+    public Condition getCondition() {
+      return condition;
+    }
+  }
+
+  private static class NegativeSelectorImpl extends SelectorImpl implements NegativeSelector {
+    private final SimpleSelector simpleSelector;
+
+    private NegativeSelectorImpl(final SimpleSelector simpleSelector) {
+      super(SAC_NEGATIVE_SELECTOR);
+      this.simpleSelector = simpleSelector;
+    }
+
+    public SimpleSelector getSimpleSelector() {
+      return simpleSelector;
+    }
+  }
+
+  private static class PositionalConditionImpl extends ConditionImpl
+      implements PositionalCondition {
+    private final int position;
+    private final boolean type;
+    private final boolean typeNode;
+
+    private PositionalConditionImpl(
+        final int position, final boolean typeNode, final boolean type) {
+      super(SAC_POSITIONAL_CONDITION);
+      this.position = position;
+      this.typeNode = typeNode;
+      this.type = type;
+    }
+
+    public int getPosition() {
+      return position;
+    }
+
+    public boolean getType() {
+      return type;
+    }
+
+    public boolean getTypeNode() {
+      return typeNode;
+    }
+  }
+
+  private static class SelectorImpl implements SimpleSelector {
+    private final short type;
+
+    private SelectorImpl(final short type) {
+      this.type = type;
+    }
+
+    public short getSelectorType() {
+      return type;
+    }
+  }
+
+  private static class SiblingSelectorImpl extends SelectorImpl implements SiblingSelector {
+    private final short nodeType;
+    private final Selector selector;
+    private final SimpleSelector siblingSelector;
+
+    private SiblingSelectorImpl(
+        final short nodeType, final Selector selector, final SimpleSelector siblingSelector) {
+      super(SAC_DIRECT_ADJACENT_SELECTOR);
+      this.nodeType = nodeType;
+      this.selector = selector;
+      this.siblingSelector = siblingSelector;
+    }
+
+    public short getNodeType() {
+      return nodeType;
+    }
+
+    public Selector getSelector() {
+      return selector;
+    }
+
+    public SimpleSelector getSiblingSelector() {
+      return siblingSelector;
+    }
+  }
+}
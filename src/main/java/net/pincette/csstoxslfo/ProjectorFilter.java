@@ -23,9 +23,16 @@ import static net.pincette.csstoxslfo.Constants.SPECIF;
 import static net.pincette.csstoxslfo.Constants.XHTML;
 import static net.pincette.csstoxslfo.Constants.XML;
 import static net.pincette.csstoxslfo.Element.INLINE;
+import static net.pincette.csstoxslfo.Element.INLINE_TABLE;
 import static net.pincette.csstoxslfo.Element.MARKER;
+import static net.pincette.csstoxslfo.Element.TABLE;
 import static net.pincette.csstoxslfo.Element.TABLE_CELL;
 import static net.pincette.csstoxslfo.Element.TABLE_COLUMN;
+import static net.pincette.csstoxslfo.Element.TABLE_COLUMN_GROUP;
+import static net.pincette.csstoxslfo.Element.TABLE_FOOTER_GROUP;
+import static net.pincette.csstoxslfo.Element.TABLE_HEADER_GROUP;
+import static net.pincette.csstoxslfo.Element.TABLE_ROW;
+import static net.pincette.csstoxslfo.Element.TABLE_ROW_GROUP;
 import static net.pincette.csstoxslfo.PageSetupFilter.BODY;
 import static net.pincette.csstoxslfo.PageSetupFilter.PAGES;
 import static net.pincette.csstoxslfo.PageSetupFilter.UNNAMED;
@@ -73,6 +80,7 @@ import static net.pincette.csstoxslfo.Util.INHERIT;
 import static net.pincette.csstoxslfo.Util.LAST;
 import static net.pincette.csstoxslfo.Util.LEFT;
 import static net.pincette.csstoxslfo.Util.LEFT_CORNER;
+import static net.pincette.csstoxslfo.Util.LOGGER;
 import static net.pincette.csstoxslfo.Util.MIDDLE;
 import static net.pincette.csstoxslfo.Util.NAME;
 import static net.pincette.csstoxslfo.Util.NONE;
@@ -109,7 +117,6 @@ import static net.pincette.util.Triple.triple;
 import static net.pincette.util.Util.from;
 import static net.pincette.util.Util.tryToDoRethrow;
 import static net.pincette.util.Util.tryToGetRethrow;
-import static net.pincette.xml.Util.children;
 import static net.pincette.xml.sax.Accumulator.postAccumulate;
 import static net.pincette.xml.sax.DOMToContentHandler.elementToContentHandler;
 import static net.pincette.xml.sax.Util.addAttribute;
@@ -127,6 +134,7 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -141,12 +149,14 @@ import java.util.stream.Stream;
 import net.pincette.css.sac.InputSource;
 import net.pincette.css.sac.LexicalUnit;
 import net.pincette.css.sac.Parser;
+import net.pincette.csstoxslfo.Events.DocumentMatching;
+import net.pincette.csstoxslfo.Events.MatcherReposition;
+import net.pincette.csstoxslfo.Events.StyleSheetParse;
 import net.pincette.csstoxslfo.PageRule.MarginBox;
 import net.pincette.function.SideEffect;
 import net.pincette.util.Pair;
 import net.pincette.util.StreamUtil;
 import net.pincette.xml.sax.Attribute;
-import org.w3c.dom.Node;
 import org.xml.sax.Attributes;
 import org.xml.sax.ContentHandler;
 import org.xml.sax.SAXException;
@@ -192,6 +202,7 @@ class ProjectorFilter extends XMLFilterImpl {
   private static final String LEADER = "leader";
   private static final String LEVEL = "level";
   private static final String LINK = "link";
+  private static final String MARKER_WRAPPER = "marker-wrapper";
   private static final String PAGE_REF = "page-ref";
   private static final String REF_ID = "ref-id";
   private static final String RETRIEVE_FO_MARKER = "retrieve-fo-marker";
@@ -241,70 +252,56 @@ class ProjectorFilter extends XMLFilterImpl {
     {"upper-latin", "A"},
     {"upper-roman", "I"},
   };
+  private static final int MAX_SHARED_STYLES = 10000;
+  private static final int MAX_STYLE_ATTRIBUTES = 1000;
   private static final String STYLE = "style";
+  // The parts of a table in which an inline is not allowed.
+  private static final Set<String> TABLE_PARTS =
+      Set.of(
+          INLINE_TABLE,
+          TABLE,
+          TABLE_COLUMN,
+          TABLE_COLUMN_GROUP,
+          TABLE_FOOTER_GROUP,
+          TABLE_HEADER_GROUP,
+          TABLE_ROW,
+          TABLE_ROW_GROUP);
+  private static final Set<String> UNSHAREABLE_PROPERTIES =
+      Set.of(BOOKMARK_LABEL, BOOKMARK_TARGET, COUNTER_INCREMENT, COUNTER_RESET, STRING_SET);
 
   private boolean bodyRegionSeen = false;
   private boolean collectStyleSheet = false;
-  private Compiled compiled = new Compiled();
+  private Compiled compiled;
   private final Configuration configuration;
   private final Context context;
   private final Deque<Map<String, Integer>> counterStack = new ArrayDeque<>();
+  private DocumentMatching documentMatching = null;
   private final Deque<Element> elements = new ArrayDeque<>();
   private StringBuilder embeddedStyleSheet = new StringBuilder();
+  private final Map<String, String> initialFOMarkers = new LinkedHashMap<>();
   private int lastRulePosition = 0;
-  private Matcher matcher = null;
+  private StyleMatcher matcher = null;
   private final Deque<Map<String, String>> namedStrings = new ArrayDeque<>();
   // Filter state because quotes can match across the hole document.
   private int quoteDepth = 0;
+  private Parser sacParser = null;
+  private int sharedStyleHits = 0;
+  private int sharedStyleLookups = 0;
+  private final Map<List<Rule>, Attributes> sharedStyles = new HashMap<>();
+  private final Map<StyleAttribute, List<Rule>> styleAttributes =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Entry<StyleAttribute, List<Rule>> eldest) {
+          return size() > MAX_STYLE_ATTRIBUTES;
+        }
+      };
+  private UserAgentStyleSheet userAgentStyleSheet;
 
   ProjectorFilter(final Configuration configuration, final Context context) {
     this.configuration = configuration;
     this.context = context;
   }
 
-  private static Map<String, StringBuilder> addContentBeforeAfter(
-      final Map<String, StringBuilder> result, final Node n) {
-    if (BEFORE.equals(n.getLocalName()) || AFTER.equals(n.getLocalName())) {
-      result.get(CONTENT + "-" + n.getLocalName()).append(n.getTextContent());
-      result.get(CONTENTS).append(n.getTextContent());
-    }
-
-    return result;
-  }
-
-  private static void addContentFirstLetter(
-      final Map<String, StringBuilder> result, final String s) {
-    final StringBuilder builder = result.get(CONTENT_FIRST_LETTER);
-
-    if (builder.isEmpty()) {
-      final char firstLetter = getFirstLetter(s);
-
-      if (firstLetter != (char) -1) {
-        builder.append(firstLetter);
-      }
-    }
-  }
-
-  private static Map<String, StringBuilder> addContentText(
-      final Map<String, StringBuilder> result, final Node n) {
-    final String s = n.getTextContent();
-
-    addContentFirstLetter(result, s);
-    result.get(CONTENTS).append(s);
-    result.get(CONTENT_ELEMENT).append(s);
-
-    return result;
-  }
-
-  private static void addFOMarker(final Node parent, final String name, final String value) {
-    final org.w3c.dom.Element element =
-        parent.getOwnerDocument().createElementNS(CSS, "css:" + FO_MARKER);
-
-    element.appendChild(parent.getOwnerDocument().createTextNode(value));
-    element.setAttributeNS(CSS, "css:" + NAME, name);
-    parent.insertBefore(element, parent.getFirstChild());
-  }
-
   private static AttributesImpl addStyle(final AttributesImpl atts, final String style) {
     atts.addAttribute(CSS, STYLE, "css:" + STYLE, CDATA, style);
 
@@ -339,6 +336,20 @@ class ProjectorFilter extends XMLFilterImpl {
                 || hasMarginBoxContent(pageRule, side + "-" + BOTTOM)));
   }
 
+  private static AttributesImpl appendAttributes(
+      final AttributesImpl attributes, final Attributes toAppend) {
+    for (int i = 0; i < toAppend.getLength(); ++i) {
+      attributes.addAttribute(
+          toAppend.getURI(i),
+          toAppend.getLocalName(i),
+          toAppend.getQName(i),
+          toAppend.getType(i),
+          toAppend.getValue(i));
+    }
+
+    return attributes;
+  }
+
   private static void cleanUpElement(final Element element) {
     element.matchingElementRules = null;
     element.matchingPseudoRules = null;
@@ -495,22 +506,6 @@ class ProjectorFilter extends XMLFilterImpl {
     };
   }
 
-  private static Map<String, StringBuilder> getElementContents(final org.w3c.dom.Element element) {
-    return children(element)
-        .reduce(
-            map(
-                pair(CONTENTS, new StringBuilder()),
-                pair(CONTENT_ELEMENT, new StringBuilder()),
-                pair(CONTENT_BEFORE, new StringBuilder()),
-                pair(CONTENT_AFTER, new StringBuilder()),
-                pair(CONTENT_FIRST_LETTER, new StringBuilder())),
-            (m, n) ->
-                CSS.equals(n.getNamespaceURI())
-                    ? addContentBeforeAfter(m, n)
-                    : addContentText(m, n),
-            (m1, m2) -> m1);
-  }
-
   /**
    * The method expands all the style sheet specified page names into first, last, left, right,
    * blank and any variants, which go in the repeatable page masters. Only the most precise page
@@ -611,6 +606,14 @@ class ProjectorFilter extends XMLFilterImpl {
         .orElse(false);
   }
 
+  /** Counters, named strings, running elements and bookmarks depend on more than the rule. */
+  private static boolean hasSideEffects(final Rule rule) {
+    final Property property = rule.getProperties()[0];
+
+    return UNSHAREABLE_PROPERTIES.contains(property.getName())
+        || (POSITION.equals(property.getName()) && getRunning(property) != null);
+  }
+
   private static boolean hasStyleSheetRelation(final Attributes atts) {
     return ofNullable(atts.getValue("rel")).map(v -> v.equals("stylesheet")).orElse(true);
   }
@@ -694,6 +697,18 @@ class ProjectorFilter extends XMLFilterImpl {
     return id != null && !id.isEmpty() && id.charAt(0) == '#';
   }
 
+  /**
+   * The CSS attributes of an element can be shared with other elements that have the same matching
+   * rules when the rules have no side effects and when the element doesn't carry CSS attributes
+   * itself.
+   */
+  private static boolean isShareable(
+      final Collection<Rule> matchingRules, final Attributes attributes) {
+    return matchingRules.stream().noneMatch(ProjectorFilter::hasSideEffects)
+        && attributes(attributes)
+            .noneMatch(a -> CSS.equals(a.namespaceURI) || SPECIF.equals(a.namespaceURI));
+  }
+
   private static boolean isStaticRegion(final Attributes atts) {
     return ofNullable(atts.getValue(CSS, REGION))
         .map(region -> !BODY.equalsIgnoreCase(region) && !NONE.equalsIgnoreCase(region))
@@ -722,6 +737,11 @@ class ProjectorFilter extends XMLFilterImpl {
         || (isAnchor(element) && NAME.equals(element.attributes.getLocalName(attribute)));
   }
 
+  /** Tells if the evaluated expression has placeholders for the contents of the element. */
+  private static boolean refersToContents(final String value) {
+    return value.contains("{" + CONTENT);
+  }
+
   private static Attributes removeChangeBarAttributes(final Attributes attributes) {
     return reduce(attributes(attributes).filter(a -> !a.localName.startsWith("change-bar-")));
   }
@@ -773,6 +793,17 @@ class ProjectorFilter extends XMLFilterImpl {
     handler.characters(value.toCharArray(), 0, value.length());
   }
 
+  private static void serializeFOMarker(
+      final ContentHandler handler, final String name, final String value) throws SAXException {
+    handler.startElement(
+        CSS,
+        FO_MARKER,
+        "css:" + FO_MARKER,
+        addAttribute(new AttributesImpl(), CSS, NAME, "css:" + NAME, CDATA, name));
+    handler.characters(value.toCharArray(), 0, value.length());
+    handler.endElement(CSS, FO_MARKER, "css:" + FO_MARKER);
+  }
+
   private static void serializeFunction(
       final ContentHandler handler,
       final LexicalUnit unit,
@@ -1062,6 +1093,18 @@ class ProjectorFilter extends XMLFilterImpl {
     addTableColumn(pageRule, side + "-" + RIGHT, middle ? null : "");
   }
 
+  /**
+   * The shared compiled user agent style sheet is not changed. A copy that shares its segments is
+   * made before the first rule of the document is added.
+   */
+  private void addRule(final Rule rule) {
+    if (compiled == userAgentStyleSheet.getCompiled()) {
+      compiled = new Compiled(compiled);
+    }
+
+    compiled.addRule(rule);
+  }
+
   private void addTableCell(final PageRule pageRule, final String name, final String orientation)
       throws SAXException {
     final MarginBox marginBox = pageRule.getMarginBox(name);
@@ -1159,6 +1202,7 @@ class ProjectorFilter extends XMLFilterImpl {
       }
 
       super.startElement(CSS, name, "css:" + name, removeChangeBarAttributes(attributes));
+      serializeInitialFOMarkers();
 
       if (AFTER.equals(name) || BEFORE.equals(name)) {
         applyContentProperty(element, pseudoRules);
@@ -1181,6 +1225,82 @@ class ProjectorFilter extends XMLFilterImpl {
     super.characters(ch, start, length);
   }
 
+  private void countMatching(final Element element, final long cascadeStart) {
+    if (documentMatching != null) {
+      documentMatching.cascadeTime += System.nanoTime() - cascadeStart;
+      ++documentMatching.elements;
+      documentMatching.matchedRules +=
+          element.matchingElementRules.size() + element.matchingPseudoRules.size();
+    }
+  }
+
+  /**
+   * This method produces CSS attributes according to the matching rules. It also has a side effect
+   * in that it adjusts the counters and named strings. This was done in order to scan the matching
+   * rules only once.
+   */
+  private AttributesImpl createCSSAttributes(
+      final Collection<Rule> matchingRules, final Attributes attributes) {
+    Property bookmarkLabel = null;
+    boolean displayNone = false;
+    final AttributesImpl result = new AttributesImpl(attributes);
+    String running = null;
+    Property stringSet = null;
+
+    // From least to most specific.
+
+    for (Rule rule : matchingRules) {
+      final Property property = rule.getProperties()[0];
+      final String propertyName = property.getName();
+
+      switch (propertyName) {
+        case COUNTER_INCREMENT:
+          incrementCounter(property, !displayNone);
+          break;
+        case COUNTER_RESET:
+          resetCounter(property, !displayNone);
+          break;
+        case STRING_SET:
+          stringSet = property;
+          break;
+        case POSITION:
+          if (getRunning(property) != null) running = getRunning(property);
+          break;
+        case BOOKMARK_LABEL:
+          bookmarkLabel = property;
+          break;
+        case BOOKMARK_TARGET:
+          setCSSAttribute(
+              result,
+              new Property(
+                  propertyName,
+                  evaluateBookmarkTarget(property, result),
+                  property.getImportant(),
+                  property.getPrefixMap()),
+              rule.getSpecificity());
+          break;
+        default:
+          setCSSAttribute(result, property, rule.getSpecificity());
+          displayNone = displayNone || isDisplayNone(property);
+          break;
+      }
+    }
+
+    if (stringSet != null && !displayNone) {
+      setNamedString(stringSet, result.getValue(CSS, DISPLAY));
+    }
+
+    if (running != null && !displayNone) {
+      installRunningAccumulator(running);
+    }
+
+    if (bookmarkLabel != null && !displayNone) {
+      setBookmarkLabel(bookmarkLabel, result);
+    }
+
+    return result;
+  }
+
   @Override
   public void endDocument() throws SAXException {
     if (!bodyRegionSeen) {
@@ -1189,6 +1309,17 @@ class ProjectorFilter extends XMLFilterImpl {
               WARNING, "At least one element should have the \"region\" property set to \"body\".");
     }
 
+    LOGGER.fine(
+        () -> "Shared styles: " + sharedStyleHits + " hits for " + sharedStyleLookups + " lookups");
+    ofNullable(configuration.getConversionStats())
+        .ifPresent(stats -> stats.sharedStyles(sharedStyleHits, sharedStyleLookups));
+
+    if (documentMatching != null) {
+      documentMatching.sharedStyleHits = sharedStyleHits;
+      documentMatching.sharedStyleLookups = sharedStyleLookups;
+      documentMatching.commit();
+    }
+
     endPrefixMapping("css");
     endPrefixMapping("sp");
     super.endDocument();
@@ -1471,30 +1602,22 @@ class ProjectorFilter extends XMLFilterImpl {
         : Locale.getDefault();
   }
 
-  private List<Rule> getStyleAttributeRules(final String style) {
-    final List<Rule> rules = new ArrayList<>();
+  /** The SAC parser is created only once, because it is done with reflection. */
+  private Parser getParser() {
+    if (sacParser == null) {
+      sacParser = getSacParser();
+    }
 
-    parseStyleSheet(
-        null,
-        new StringReader("dummy{" + style + "}"),
-        rule -> {
-          final Property property = rule.getProperty();
-
-          if (CONTENT_AFTER.equals(property.getName())) {
-            rule.setPseudoElementName(AFTER);
-            property.setName(CONTENT);
-          } else if (CONTENT_BEFORE.equals(property.getName())) {
-            rule.setPseudoElementName(BEFORE);
-            property.setName(CONTENT);
-          }
-
-          rules.add(rule);
-        },
-        new HashMap<>(),
-        3,
-        false);
+    return sacParser;
+  }
 
-    return rules;
+  /**
+   * The parsed rules are cached by style attribute and base URL, because documents often repeat
+   * the same style attribute. The rules are shared by the elements, so they are never changed.
+   */
+  private List<Rule> getStyleAttributeRules(final String style) {
+    return styleAttributes.computeIfAbsent(
+        new StyleAttribute(resolveUri(null), style), k -> parseStyleAttribute(style));
   }
 
   private void handleCollectStyleSheet() {
@@ -1621,19 +1744,48 @@ class ProjectorFilter extends XMLFilterImpl {
                         scope -> scope.put(pair.first, scope.get(pair.first) + pair.second)));
   }
 
+  private void initializeStyleSheet() throws SAXException {
+    userAgentStyleSheet = UserAgentStyleSheet.get(configuration);
+    compiled = userAgentStyleSheet.getCompiled();
+    lastRulePosition = userAgentStyleSheet.getLastRulePosition();
+    context.pageRules.putAll(userAgentStyleSheet.getPageRules());
+    installMatcher();
+  }
+
+  /**
+   * The label is added to the element as a trailing <code>css:bookmark-label</code> element, which
+   * is picked up by {@link BookmarkFilter}.
+   */
   private void installBookmarkLabelAccumulator(final Property property, final String value) {
-    postAccumulate(
-        this,
-        (element, filter) -> {
-          element.setAttributeNS(
+    new ContentsCollector(
+        (contents, handler) -> {
+          handler.startElement(
               CSS,
+              property.getName(),
               "css:" + property.getName(),
-              replaceContents(value, getElementContents(element)).trim());
-
-          elementToContentHandler(element, filter.getContentHandler());
+              addAttribute(
+                  new AttributesImpl(),
+                  CSS,
+                  VALUE,
+                  "css:" + VALUE,
+                  CDATA,
+                  replaceContents(value, contents).trim()));
+          handler.endElement(CSS, property.getName(), "css:" + property.getName());
         });
   }
 
+  /**
+   * In rule index mode the shared index of the user agent style sheet is reused and only the rules
+   * of the document are indexed.
+   */
+  private void installMatcher() throws SAXException {
+    matcher =
+        configuration.getRuleIndexMode()
+            ? newIndexMatcher()
+            : new Matcher(compiled, configuration.getRuleProfile());
+    repositionMatcher();
+  }
+
   /** The installed accumulator catches region elements processed by this filter and saves them. */
   private void installRegionAccumulator() {
     postAccumulate(
@@ -1657,7 +1809,7 @@ class ProjectorFilter extends XMLFilterImpl {
           final org.w3c.dom.Element marker =
               element.getOwnerDocument().createElementNS(CSS, "css:" + FO_MARKER);
           final org.w3c.dom.Element wrapper =
-              element.getOwnerDocument().createElementNS(CSS, "css:marker-wrapper");
+              element.getOwnerDocument().createElementNS(CSS, "css:" + MARKER_WRAPPER);
 
           marker.setAttributeNS(CSS, "css:" + NAME, ELEMENT + "-" + name);
           marker.appendChild(element);
@@ -1667,28 +1819,59 @@ class ProjectorFilter extends XMLFilterImpl {
         });
   }
 
+  /**
+   * A value without placeholders for the contents is set right away and its FO-marker becomes an
+   * initial child of the element. The other values are only known at the end of the element, so
+   * their FO-markers are added as trailing events. This puts them on the page where the element
+   * ends instead of the one where it starts. They are wrapped in an inline, because an FO-marker
+   * can only be an initial child. In the parts of a table an inline is not allowed, so there they
+   * are left bare and the {@link FOMarkerFilter} moves them to the next allowed place.
+   */
   private void installStringSetAccumulator(
-      final Map<String, Map<String, String>> scopes, final Map<String, StringBuilder> values) {
-    postAccumulate(
-        this,
-        (element, filter) -> {
-          from(getElementContents(element))
-              .accept(
-                  contents ->
-                      scopes
-                          .keySet()
-                          .forEach(
-                              name ->
-                                  from(replaceContents(values.get(name).toString(), contents)
-                                          .trim())
-                                      .accept(
-                                          result -> {
-                                            scopes.get(name).put(name, result);
-                                            addFOMarker(element, STRING + "-" + name, result);
-                                          })));
-
-          elementToContentHandler(element, filter.getContentHandler());
-        });
+      final Map<String, Map<String, String>> scopes,
+      final Map<String, StringBuilder> values,
+      final String display) {
+    final List<String> trailing = new ArrayList<>();
+
+    for (String name : scopes.keySet()) {
+      final String value = values.get(name).toString();
+
+      if (refersToContents(value)) {
+        trailing.add(name);
+      } else {
+        final String result = replaceContents(value, Map.of()).trim();
+
+        scopes.get(name).put(name, result);
+        initialFOMarkers.put(STRING + "-" + name, result);
+      }
+    }
+
+    if (!trailing.isEmpty()) {
+      final boolean wrap = !TABLE_PARTS.contains(display);
+
+      new ContentsCollector(
+          (contents, handler) -> {
+            if (wrap) {
+              handler.startElement(
+                  CSS,
+                  MARKER_WRAPPER,
+                  "css:" + MARKER_WRAPPER,
+                  addAttribute(
+                      new AttributesImpl(), CSS, DISPLAY, "css:" + DISPLAY, CDATA, INLINE));
+            }
+
+            for (String name : trailing) {
+              final String result = replaceContents(values.get(name).toString(), contents).trim();
+
+              scopes.get(name).put(name, result);
+              serializeFOMarker(handler, STRING + "-" + name, result);
+            }
+
+            if (wrap) {
+              handler.endElement(CSS, MARKER_WRAPPER, "css:" + MARKER_WRAPPER);
+            }
+          });
+    }
   }
 
   private boolean isFloatAllowed() {
@@ -1699,16 +1882,46 @@ class ProjectorFilter extends XMLFilterImpl {
         .noneMatch(pair -> pair.first.floating || isAbsolutelyPositioned(pair.first));
   }
 
-  private void parseInitialStyleSheet() {
-    parseStyleSheet(new StringReader("*{display: inline}"), -2);
+  private StyleMatcher newIndexMatcher() {
+    final List<Rule> rules = compiled.getRules();
+    final StyleMatcher result =
+        new IndexMatcher(
+            userAgentStyleSheet.getRuleIndex(),
+            rules.subList(userAgentStyleSheet.getCompiled().getRules().size(), rules.size()),
+            configuration.getRuleProfile());
 
-    final String htmlHeaderMark = configuration.getParameters().get("html-header-mark");
+    return CheckingMatcher.ENABLED
+        ? new CheckingMatcher(result, new Matcher(compiled, null))
+        : result;
+  }
 
-    if (htmlHeaderMark != null) {
-      parseStyleSheet(new StringReader(htmlHeaderMark + "{string-set: component contents}"), -2);
-    }
+  private List<Rule> parseStyleAttribute(final String style) {
+    final List<Rule> rules = new ArrayList<>();
 
-    parseStyleSheet(configuration.getUserAgentStyleSheet().toString(), -1);
+    parseStyleSheet(
+        null,
+        new StringReader("dummy{" + style + "}"),
+        block ->
+            Arrays.stream(block.split())
+                .forEach(
+                    rule -> {
+                      final Property property = rule.getProperty();
+
+                      if (CONTENT_AFTER.equals(property.getName())) {
+                        rule.setPseudoElementName(AFTER);
+                        property.setName(CONTENT);
+                      } else if (CONTENT_BEFORE.equals(property.getName())) {
+                        rule.setPseudoElementName(BEFORE);
+                        property.setName(CONTENT);
+                      }
+
+                      rules.add(rule);
+                    }),
+        new HashMap<>(),
+        3,
+        false);
+
+    return List.copyOf(rules);
   }
 
   private void parseStyleSheet(final String uri, final int offset) {
@@ -1720,7 +1933,7 @@ class ProjectorFilter extends XMLFilterImpl {
   }
 
   private void parseStyleSheet(final String uri, final Reader reader, final int offset) {
-    parseStyleSheet(uri, reader, compiled::addRule, context.pageRules, offset, true);
+    parseStyleSheet(uri, reader, this::addRule, context.pageRules, offset, true);
   }
 
   private void parseStyleSheet(
@@ -1730,8 +1943,12 @@ class ProjectorFilter extends XMLFilterImpl {
       final Map<String, PageRule> pageRules,
       final int offset,
       final boolean resetMatcher) {
+    final StyleSheetParse event = new StyleSheetParse();
+
+    event.begin();
+
     try {
-      final Parser parser = getSacParser();
+      final Parser parser = getParser();
       final InputSource source = reader != null ? new InputSource(reader) : new InputSource();
 
       source.setURI(resolveUri(uri));
@@ -1747,6 +1964,13 @@ class ProjectorFilter extends XMLFilterImpl {
 
       parser.setDocumentHandler(collector);
       parser.parseStyleSheet(source);
+
+      if (event.shouldCommit()) {
+        event.rules = collector.getCurrentPosition() - lastRulePosition;
+        event.url = source.getURI();
+        event.commit();
+      }
+
       lastRulePosition = collector.getCurrentPosition();
 
       if (resetMatcher) {
@@ -1780,6 +2004,9 @@ class ProjectorFilter extends XMLFilterImpl {
   }
 
   private void repositionMatcher() throws SAXException {
+    final MatcherReposition event = new MatcherReposition();
+
+    event.begin();
     matcher.startDocument();
 
     // The "/" element is of no concern.
@@ -1788,17 +2015,30 @@ class ProjectorFilter extends XMLFilterImpl {
       matcher.startElement(
           element.namespaceURI, element.localName, element.qName, element.attributes);
     }
+
+    if (event.shouldCommit()) {
+      event.elements = elements.size();
+      event.ruleIndex = configuration.getRuleIndexMode();
+      event.rules = compiled.getRules().size();
+      event.commit();
+    }
   }
 
   private void reset() {
     context.pageRules.clear();
-    compiled = new Compiled();
+    compiled = null;
     matcher = null;
     collectStyleSheet = false;
     embeddedStyleSheet = new StringBuilder();
     elements.clear();
     counterStack.clear();
+    documentMatching = null;
+    context.metaData.clear();
     namedStrings.clear();
+    initialFOMarkers.clear();
+    sharedStyles.clear();
+    sharedStyleHits = 0;
+    sharedStyleLookups = 0;
     context.regions.clear();
   }
 
@@ -1972,6 +2212,15 @@ class ProjectorFilter extends XMLFilterImpl {
     handler.characters(value.toCharArray(), 0, value.length());
   }
 
+  /** The FO-markers of the named strings that were set right away follow the start tag. */
+  private void serializeInitialFOMarkers() throws SAXException {
+    for (Entry<String, String> entry : initialFOMarkers.entrySet()) {
+      serializeFOMarker(getContentHandler(), entry.getKey(), entry.getValue());
+    }
+
+    initialFOMarkers.clear();
+  }
+
   private void serializeQuote(
       final ContentHandler handler, final LexicalUnit unit, final Element element)
       throws SAXException {
@@ -1981,7 +2230,11 @@ class ProjectorFilter extends XMLFilterImpl {
     handler.characters(value.first.toCharArray(), 0, value.first.length());
   }
 
-  private void setBookmarkLabel(final Property bookmarkLabel) {
+  /**
+   * When the label depends on the contents of the element, the attribute is empty and the label
+   * follows at the end of the element.
+   */
+  private void setBookmarkLabel(final Property bookmarkLabel, final AttributesImpl attributes) {
     ofNullable(bookmarkLabel.getLexicalUnit())
         .filter(unit -> unit.getLexicalUnitType() == SAC_IDENT)
         .filter(unit -> !NONE.equalsIgnoreCase(unit.getStringValue()))
@@ -1995,77 +2248,54 @@ class ProjectorFilter extends XMLFilterImpl {
         .filter(value -> !value.isEmpty())
         .map(StringBuilder::toString)
         .ifPresent(
-            value -> tryToDoRethrow(() -> installBookmarkLabelAccumulator(bookmarkLabel, value)));
+            value -> {
+              final boolean contents = refersToContents(value);
+
+              attributes.addAttribute(
+                  CSS,
+                  bookmarkLabel.getName(),
+                  "css:" + bookmarkLabel.getName(),
+                  CDATA,
+                  contents ? "" : replaceContents(value, Map.of()).trim());
+
+              if (contents) {
+                installBookmarkLabelAccumulator(bookmarkLabel, value);
+              }
+            });
   }
 
   /**
-   * This method produces CSS attributes according to the matching rules. It also has a side effect
-   * in that it adjusts the counters and named strings. This was done in order to scan the matching
-   * rules only once.
+   * Elements with the same shareable matching rules get the same CSS attributes, so they are
+   * computed only once. The shared attributes are never handed out, because the result is changed
+   * further on.
    */
   private AttributesImpl setCSSAttributes(
       final Collection<Rule> matchingRules, final Attributes attributes) {
-    Property bookmarkLabel = null;
-    boolean displayNone = false;
-    final AttributesImpl result = new AttributesImpl(attributes);
-    String running = null;
-    Property stringSet = null;
+    if (!isShareable(matchingRules, attributes)) {
+      return createCSSAttributes(matchingRules, attributes);
+    }
 
-    // From least to most specific.
+    final List<Rule> key = List.copyOf(matchingRules);
+    final Attributes shared = sharedStyles.get(key);
 
-    for (Rule rule : matchingRules) {
-      final Property property = rule.getProperties()[0];
-      final String propertyName = property.getName();
+    ++sharedStyleLookups;
 
-      switch (propertyName) {
-        case COUNTER_INCREMENT:
-          incrementCounter(property, !displayNone);
-          break;
-        case COUNTER_RESET:
-          resetCounter(property, !displayNone);
-          break;
-        case STRING_SET:
-          stringSet = property;
-          break;
-        case POSITION:
-          if (getRunning(property) != null) running = getRunning(property);
-          break;
-        case BOOKMARK_LABEL:
-          bookmarkLabel = property;
-          break;
-        case BOOKMARK_TARGET:
-          setCSSAttribute(
-              result,
-              new Property(
-                  propertyName,
-                  evaluateBookmarkTarget(property, result),
-                  property.getImportant(),
-                  property.getPrefixMap()),
-              rule.getSpecificity());
-          break;
-        default:
-          setCSSAttribute(result, property, rule.getSpecificity());
-          displayNone = displayNone || isDisplayNone(property);
-          break;
-      }
-    }
+    if (shared != null) {
+      ++sharedStyleHits;
 
-    if (stringSet != null && !displayNone) {
-      setNamedString(stringSet);
+      return appendAttributes(new AttributesImpl(attributes), shared);
     }
 
-    if (running != null && !displayNone) {
-      installRunningAccumulator(running);
-    }
+    final AttributesImpl style = createCSSAttributes(matchingRules, new AttributesImpl());
 
-    if (bookmarkLabel != null && !displayNone) {
-      setBookmarkLabel(bookmarkLabel);
+    if (sharedStyles.size() < MAX_SHARED_STYLES) {
+      sharedStyles.put(key, style);
     }
 
-    return result;
+    return appendAttributes(new AttributesImpl(attributes), style);
   }
 
-  private void setNamedString(final Property stringSet) {
+  private void setNamedString(final Property stringSet, final String display) {
     if (isStringSetSet(stringSet)) {
       final ScopesValues scopesValues = new ScopesValues();
 
@@ -2088,14 +2318,13 @@ class ProjectorFilter extends XMLFilterImpl {
               (l1, l2) -> l1)
           .forEach(entry -> scopesValues.set(entry.name, entry.value));
 
-      installStringSetAccumulator(scopesValues.scopes, scopesValues.values);
+      installStringSetAccumulator(scopesValues.scopes, scopesValues.values, display);
     }
   }
 
   private void setMatcher() throws SAXException {
     compiled.generateDFA();
-    matcher = new Matcher(compiled);
-    repositionMatcher();
+    installMatcher();
   }
 
   private void setQuotes() {
@@ -2119,7 +2348,8 @@ class ProjectorFilter extends XMLFilterImpl {
   @Override
   public void startDocument() throws SAXException {
     reset();
-    parseInitialStyleSheet();
+    initializeStyleSheet();
+    startDocumentMatching();
 
     final Element root = new Element("", "/", "/");
 
@@ -2132,6 +2362,17 @@ class ProjectorFilter extends XMLFilterImpl {
     startPrefixMapping("sp", SPECIF);
   }
 
+  /** The event is only kept when it is enabled, so the cascade isn't timed otherwise. */
+  private void startDocumentMatching() {
+    final DocumentMatching event = new DocumentMatching();
+
+    if (event.isEnabled()) {
+      event.document = ofNullable(configuration.getBaseUrl()).map(URL::toString).orElse(null);
+      event.begin();
+      documentMatching = event;
+    }
+  }
+
   /** The string arguments are interned. */
   @Override
   public void startElement(
@@ -2148,6 +2389,9 @@ class ProjectorFilter extends XMLFilterImpl {
     // Must be copied because atts might be recuperated by the parser.
     element.attributes = new AttributesImpl(atts);
     handleControlInformation(namespaceURI, localName, element.attributes);
+
+    final long cascadeStart = documentMatching != null ? System.nanoTime() : 0;
+
     matcher.startElement(namespaceURI, localName, qName, element.attributes);
 
     element.language = matcher.getCurrentLanguage();
@@ -2157,6 +2401,7 @@ class ProjectorFilter extends XMLFilterImpl {
     setQuotes();
 
     element.appliedAttributes = setCSSAttributes(element.matchingElementRules, element.attributes);
+    countMatching(element, cascadeStart);
 
     final int index = element.appliedAttributes.getIndex("css:" + STYLE);
 
@@ -2175,6 +2420,7 @@ class ProjectorFilter extends XMLFilterImpl {
     addFirstLetterMarker(element);
     translateId(element.appliedAttributes);
     super.startElement(namespaceURI, localName, qName, element.appliedAttributes);
+    serializeInitialFOMarkers();
 
     if (isTarget(element)) {
       saveCounters(getContentHandler());
@@ -2196,6 +2442,92 @@ class ProjectorFilter extends XMLFilterImpl {
     startElement(CSS, "marginbox-synthetic", "css:marginbox-synthetic", atts);
   }
 
+  @FunctionalInterface
+  private interface ContentsProcessor {
+    void process(Map<String, StringBuilder> contents, ContentHandler handler) throws SAXException;
+  }
+
+  /**
+   * Collects the text for the placeholders in the evaluated expressions while the events of an
+   * element pass through. It takes the place of the content handler of the filter until the
+   * element ends. Then the processor gets the text and the original handler, so it can add trailing
+   * events to the element. Text in generated elements other than before and after is skipped.
+   */
+  private class ContentsCollector extends XMLFilterImpl {
+    private final Map<String, StringBuilder> contents =
+        map(
+            pair(CONTENTS, new StringBuilder()),
+            pair(CONTENT_ELEMENT, new StringBuilder()),
+            pair(CONTENT_BEFORE, new StringBuilder()),
+            pair(CONTENT_AFTER, new StringBuilder()),
+            pair(CONTENT_FIRST_LETTER, new StringBuilder()));
+    private int depth;
+    private final ContentsProcessor processor;
+    private List<StringBuilder> targets;
+    private final List<StringBuilder> text =
+        List.of(contents.get(CONTENTS), contents.get(CONTENT_ELEMENT));
+
+    private ContentsCollector(final ContentsProcessor processor) {
+      this.processor = processor;
+      targets = text;
+      setContentHandler(ProjectorFilter.this.getContentHandler());
+      ProjectorFilter.this.setContentHandler(this);
+    }
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length)
+        throws SAXException {
+      for (StringBuilder target : targets) {
+        target.append(ch, start, length);
+      }
+
+      super.characters(ch, start, length);
+    }
+
+    @Override
+    public void endElement(final String namespaceURI, final String localName, final String qName)
+        throws SAXException {
+      if (--depth == 0) {
+        final char firstLetter = getFirstLetter(contents.get(CONTENT_ELEMENT).toString());
+
+        if (firstLetter != (char) -1) {
+          contents.get(CONTENT_FIRST_LETTER).append(firstLetter);
+        }
+
+        ProjectorFilter.this.setContentHandler(getContentHandler());
+        processor.process(contents, getContentHandler());
+      } else if (depth == 1) {
+        targets = text;
+      }
+
+      super.endElement(namespaceURI, localName, qName);
+    }
+
+    @Override
+    public void startElement(
+        final String namespaceURI,
+        final String localName,
+        final String qName,
+        final Attributes atts)
+        throws SAXException {
+      if (depth++ == 1) {
+        targets = targets(namespaceURI, localName);
+      }
+
+      super.startElement(namespaceURI, localName, qName, atts);
+    }
+
+    private List<StringBuilder> targets(final String namespaceURI, final String localName) {
+      if (!CSS.equals(namespaceURI)) {
+        return text;
+      }
+
+      return BEFORE.equals(localName) || AFTER.equals(localName)
+          ? List.of(contents.get(CONTENT + "-" + localName), contents.get(CONTENTS))
+          : List.of();
+    }
+  }
+
   private static class Element {
     private AttributesImpl appliedAttributes;
     private AttributesImpl attributes = new AttributesImpl();
@@ -2216,6 +2548,8 @@ class ProjectorFilter extends XMLFilterImpl {
     }
   }
 
+  private record StyleAttribute(String baseUri, String style) {}
+
   private static class StringSetEntry {
     private String name;
     private final StringBuilder value = new StringBuilder();
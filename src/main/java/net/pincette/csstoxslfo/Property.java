@@ -688,6 +688,10 @@ class Property {
     return new Property(name, value, getImportant(), getPrefixMap());
   }
 
+  URL getBaseUrl() {
+    return baseUrl;
+  }
+
   boolean getImportant() {
     return important;
   }
@@ -712,6 +716,11 @@ class Property {
     return getValue(false);
   }
 
+  /** Returns the value as it was given, without the translation of color names. */
+  String getOriginalValue() {
+    return getValue(true);
+  }
+
   private String getValue(final boolean original) {
     return ofNullable(original ? valueAsString : COLORS.get(valueAsString))
         .filter(color -> !color.isEmpty())
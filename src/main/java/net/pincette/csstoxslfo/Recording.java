@@ -0,0 +1,86 @@
+package net.pincette.csstoxslfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Records SAX events in memory, so they can be replayed several times. The characters and the
+ * attributes are copied. It is meant for small fragments.
+ *
+ * @author Werner Donné
+ */
+class Recording extends XMLFilterImpl {
+  private final List<Event> events = new ArrayList<>();
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length) {
+    final char[] copy = Arrays.copyOfRange(ch, start, start + length);
+
+    events.add(h -> h.characters(copy, 0, copy.length));
+  }
+
+  @Override
+  public void endDocument() {
+    events.add(ContentHandler::endDocument);
+  }
+
+  @Override
+  public void endElement(final String namespaceURI, final String localName, final String qName) {
+    events.add(h -> h.endElement(namespaceURI, localName, qName));
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) {
+    events.add(h -> h.endPrefixMapping(prefix));
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length) {
+    final char[] copy = Arrays.copyOfRange(ch, start, start + length);
+
+    events.add(h -> h.ignorableWhitespace(copy, 0, copy.length));
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) {
+    events.add(h -> h.processingInstruction(target, data));
+  }
+
+  void replay(final ContentHandler handler) throws SAXException {
+    for (final Event event : events) {
+      event.replay(handler);
+    }
+  }
+
+  @Override
+  public void startDocument() {
+    events.add(ContentHandler::startDocument);
+  }
+
+  @Override
+  public void startElement(
+      final String namespaceURI,
+      final String localName,
+      final String qName,
+      final Attributes atts) {
+    final Attributes copy = new AttributesImpl(atts);
+
+    events.add(h -> h.startElement(namespaceURI, localName, qName, copy));
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) {
+    events.add(h -> h.startPrefixMapping(prefix, uri));
+  }
+
+  @FunctionalInterface
+  private interface Event {
+    void replay(ContentHandler handler) throws SAXException;
+  }
+}
@@ -1,6 +1,7 @@
 package net.pincette.csstoxslfo;
 
 import static java.util.Arrays.stream;
+import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toSet;
 import static java.util.stream.Stream.concat;
 import static java.util.stream.Stream.empty;
@@ -17,6 +18,7 @@ import static net.pincette.css.sac.Condition.SAC_PSEUDO_CLASS_CONDITION;
 import static net.pincette.css.sac.Selector.SAC_ELEMENT_NODE_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_PSEUDO_ELEMENT_SELECTOR;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -36,7 +38,8 @@ import net.pincette.util.Cases;
 import net.pincette.util.Util.GeneralException;
 
 /**
- * Represents one CSS2 rule.
+ * Represents one CSS2 rule. The rule keeps its whole declaration block. The declarations can be
+ * obtained as rules with one property each.
  *
  * @author Werner Donné
  */
@@ -45,7 +48,8 @@ class Rule {
   private static final String BEFORE = "before";
   private static final String FIRST_LINE = "first-line";
 
-  private Property[] cachedArray = null;
+  private Property[] cachedArray = new Property[0];
+  private volatile Rule[] declarations;
   private final String elementName;
   private final int position;
   private final Map<String, Property> properties = new HashMap<>();
@@ -67,6 +71,20 @@ class Rule {
     pseudoElementName = getPseudoElementName(selectorChain);
   }
 
+  /** Restores a rule with a specificity that already accounts for the style sheet source. */
+  Rule(
+      final Selector selector,
+      final int position,
+      final int specificity,
+      final String pseudoElementName) {
+    this.selector = selector;
+    this.position = position;
+    this.specificity = specificity;
+    this.pseudoElementName = pseudoElementName;
+    selectorChain = Util.getSelectorChain(selector);
+    elementName = getElementName(selectorChain, selectorChain.length - 1);
+  }
+
   /**
    * The created rule physically shares the selector and specificity information. This makes it
    * possible to match a set of rules resulting after a split by picking only one of them.
@@ -81,12 +99,31 @@ class Rule {
   }
 
   Rule addProperty(final Property property) {
-    cachedArray = null;
     properties.put(property.getName(), property);
+    // Computed here, because a rule may be shared by several threads after it has been compiled.
+    cachedArray = properties.values().toArray(new Property[0]);
+    declarations = null;
 
     return this;
   }
 
+  /**
+   * Returns the declarations of this rule sorted by property name. Each one is a rule with one
+   * property, which shares the selector, specificity and position of this rule. They are created
+   * only once.
+   */
+  Rule[] getDeclarations() {
+    Rule[] result = declarations;
+
+    if (result == null) {
+      result = split();
+      Arrays.sort(result, comparing((Rule rule) -> rule.getProperty().getName()));
+      declarations = result;
+    }
+
+    return result;
+  }
+
   /**
    * Returns the interned name of the element this rule applies to. If it doesn't apply to an
    * element <code>null</code> is returned.
@@ -108,10 +145,6 @@ class Rule {
   }
 
   Property[] getProperties() {
-    if (cachedArray == null || cachedArray.length != properties.size()) {
-      cachedArray = properties.values().toArray(new Property[0]);
-    }
-
     return cachedArray;
   }
 
@@ -182,6 +215,7 @@ class Rule {
 
   void setPseudoElementName(final String name) {
     pseudoElementName = name;
+    declarations = null;
   }
 
   private int specificity() {
@@ -115,7 +115,6 @@ class RuleCollector implements DocumentHandler {
     if (!ignore) {
       stream(currentRules)
           .filter(rule -> rule.getProperties().length > 0)
-          .flatMap(rule -> stream(rule.split()))
           .forEach(ruleEmitter::addRule);
       currentRules = null;
     }
@@ -0,0 +1,134 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.Comparator.comparing;
+import static net.pincette.csstoxslfo.Util.conditionText;
+import static net.pincette.csstoxslfo.Util.selectorText;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import net.pincette.css.sac.Condition;
+import net.pincette.css.sac.ConditionalSelector;
+import net.pincette.css.sac.DescendantSelector;
+import net.pincette.css.sac.Selector;
+import net.pincette.css.sac.SiblingSelector;
+
+/**
+ * Collects how often the rules of the style sheets match and how many condition evaluations they
+ * cause. Set it with {@link Configuration#setRuleProfile} to turn on profiling. A profile can be
+ * shared by several conversions, also at the same time. Rules that never match can be removed from
+ * the style sheets, which makes the DFA smaller.
+ *
+ * <p>The report is tab-separated text. The lines starting with <code>#</code> contain the totals.
+ * The other lines have the columns <code>matches</code>, <code>shared conditions</code>, <code>
+ * position</code> and <code>selector</code>. The position is the order of the rule in the style
+ * sheets. The DFA evaluates a condition once for all the rules that have it in their selector, so
+ * the evaluations can't be attributed to one rule. The second column is therefore the number of
+ * evaluations of the conditions in the selector of the rule, which the rules with the same
+ * conditions share. It shows which conditions are expensive, but the column can't be summed. The
+ * rules are sorted by the number of matches, so the unused rules come first.
+ *
+ * <p>In rule index mode the conditions are evaluated for every candidate rule and there are no
+ * transitions.
+ *
+ * @author Werner Donné
+ */
+public class RuleProfile {
+  private final Map<Condition, LongAdder> conditions = new ConcurrentHashMap<>();
+  private final LongAdder elements = new LongAdder();
+  private final Map<Rule, LongAdder> matches = new ConcurrentHashMap<>();
+  private final Set<Rule> rules = ConcurrentHashMap.newKeySet();
+  private final LongAdder transitions = new LongAdder();
+
+  private static Stream<Condition> conditions(final Selector selector) {
+    if (selector instanceof ConditionalSelector c) {
+      return Stream.concat(Stream.of(c.getCondition()), conditions(c.getSimpleSelector()));
+    }
+
+    if (selector instanceof DescendantSelector d) {
+      return Stream.concat(
+          conditions(d.getAncestorSelector()), conditions(d.getSimpleSelector()));
+    }
+
+    if (selector instanceof SiblingSelector s) {
+      return Stream.concat(conditions(s.getSelector()), conditions(s.getSiblingSelector()));
+    }
+
+    return Stream.empty();
+  }
+
+  private static long count(final LongAdder adder) {
+    return adder != null ? adder.sum() : 0;
+  }
+
+  void addRules(final Collection<Rule> rules) {
+    this.rules.addAll(rules);
+  }
+
+  void conditionEvaluated(final Condition condition) {
+    conditions.computeIfAbsent(condition, c -> new LongAdder()).increment();
+  }
+
+  /**
+   * Counts the rules that match an element. A rule that occurs more than once is counted only
+   * once.
+   */
+  void matched(final Stream<Rule> rules) {
+    elements.increment();
+    rules
+        .distinct()
+        .forEach(rule -> matches.computeIfAbsent(rule, r -> new LongAdder()).increment());
+  }
+
+  void transition() {
+    transitions.increment();
+  }
+
+  /**
+   * Writes the report. Rules with the same selector and position, which come from the same style
+   * sheet in different conversions, are reported together.
+   */
+  public void write(final Writer out) {
+    final PrintWriter writer = new PrintWriter(out);
+    // Restored conditions are other objects than those in the selectors, hence the text.
+    final Map<String, Long> conditionCounts = new HashMap<>();
+    final Map<String, long[]> lines = new HashMap<>();
+
+    conditions.forEach(
+        (condition, count) ->
+            conditionCounts.merge(conditionText(condition), count.sum(), Long::sum));
+
+    rules.forEach(
+        rule -> {
+          final long[] counts =
+              lines.computeIfAbsent(
+                  rule.getPosition() + "\t" + selectorText(rule.getSelector()),
+                  k -> new long[2]);
+
+          counts[0] += count(matches.get(rule));
+          counts[1] +=
+              conditions(rule.getSelector())
+                  .mapToLong(c -> conditionCounts.getOrDefault(conditionText(c), 0L))
+                  .sum();
+        });
+
+    writer.println("# elements\t" + elements.sum());
+    writer.println("# transitions\t" + transitions.sum());
+    writer.println("# rules\t" + lines.size());
+    writer.println("# matches\tshared conditions\tposition\tselector");
+
+    lines.entrySet().stream()
+        .sorted(
+            comparing((Map.Entry<String, long[]> e) -> e.getValue()[0])
+                .thenComparing(Map.Entry::getKey))
+        .forEach(e -> writer.println(e.getValue()[0] + "\t" + e.getValue()[1] + "\t" + e.getKey()));
+
+    writer.flush();
+  }
+}
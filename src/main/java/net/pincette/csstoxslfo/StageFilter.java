@@ -0,0 +1,117 @@
+package net.pincette.csstoxslfo;
+
+import static java.lang.System.nanoTime;
+import static java.lang.management.ManagementFactory.getThreadMXBean;
+
+import java.lang.management.ThreadMXBean;
+import net.pincette.xml.sax.FilterOfFilters;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLFilter;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Measures the input of a stage in the filter chain for {@link ConversionStats}. The time is taken
+ * around the events that go through, so it includes the time of the stages after it. When a filter
+ * sends events to itself, only the outer one is timed.
+ *
+ * @author Werner Donné
+ */
+class StageFilter extends XMLFilterImpl {
+  private static final ThreadMXBean threads = getThreadMXBean();
+
+  private int nesting;
+  private final ConversionStats.Stage stage;
+
+  StageFilter(final ConversionStats.Stage stage) {
+    this.stage = stage;
+  }
+
+  private static long cpuTime() {
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : 0;
+  }
+
+  /**
+   * Puts a stage filter before <code>filter</code> when <code>stats</code> isn't <code>null
+   * </code>. The stage is named after the class of the filter.
+   */
+  static XMLFilter instrument(final XMLFilter filter, final ConversionStats stats) {
+    return stats != null
+        ? new FilterOfFilters(
+            new XMLFilter[] {
+              new StageFilter(stats.stage(filter.getClass().getSimpleName())), filter
+            })
+        : filter;
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException {
+    stage.characters(length);
+    timed(() -> super.characters(ch, start, length));
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    timed(super::endDocument);
+  }
+
+  @Override
+  public void endElement(final String namespaceURI, final String localName, final String qName)
+      throws SAXException {
+    stage.endElement();
+    timed(() -> super.endElement(namespaceURI, localName, qName));
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length)
+      throws SAXException {
+    stage.characters(length);
+    timed(() -> super.ignorableWhitespace(ch, start, length));
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    timed(() -> super.processingInstruction(target, data));
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    timed(super::startDocument);
+  }
+
+  @Override
+  public void startElement(
+      final String namespaceURI, final String localName, final String qName, final Attributes atts)
+      throws SAXException {
+    stage.startElement();
+    timed(() -> super.startElement(namespaceURI, localName, qName, atts));
+  }
+
+  private void timed(final Event event) throws SAXException {
+    if (nesting++ > 0) {
+      try {
+        event.run();
+      } finally {
+        --nesting;
+      }
+
+      return;
+    }
+
+    final long wall = nanoTime();
+    final long cpu = cpuTime();
+
+    try {
+      event.run();
+    } finally {
+      --nesting;
+      stage.time(nanoTime() - wall, cpuTime() - cpu);
+    }
+  }
+
+  @FunctionalInterface
+  private interface Event {
+    void run() throws SAXException;
+  }
+}
@@ -0,0 +1,64 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.Arrays.stream;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Stream.concat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import org.xml.sax.ContentHandler;
+
+/**
+ * Finds the matching rules as the document goes through it. There is an implementation that runs
+ * the DFA of a compiled style sheet and one that uses an index of the rules.
+ *
+ * @author Werner Donné
+ */
+interface StyleMatcher extends ContentHandler {
+  /**
+   * Merges the declaration blocks of the rules. The blocks are taken from least to most specific.
+   * The result is grouped by property name and the important declarations of a property come after
+   * the others. A rule that occurs more than once contributes only once.
+   */
+  static List<Rule> mergeRules(final Stream<Rule> rules) {
+    final Map<String, List<Rule>> byProperty = new TreeMap<>();
+
+    rules
+        .distinct()
+        .sorted(comparing(Rule::getSpecificity).thenComparing(Rule::getPosition))
+        .flatMap(rule -> stream(rule.getDeclarations()))
+        .forEach(
+            declaration ->
+                byProperty
+                    .computeIfAbsent(declaration.getProperty().getName(), k -> new ArrayList<>())
+                    .add(declaration));
+
+    return byProperty.values().stream()
+        .flatMap(
+            declarations ->
+                concat(
+                    declarations.stream().filter(d -> !d.getProperty().getImportant()),
+                    declarations.stream().filter(d -> d.getProperty().getImportant())))
+        .collect(toList());
+  }
+
+  /** Returns the language of the current element. */
+  String getCurrentLanguage();
+
+  /**
+   * Returns the declarations that match a pseudo element of the current element, merged as in
+   * {@link #mergeRules}. The collection can be changed by the caller.
+   */
+  Collection<Rule> matchingPseudoRules();
+
+  /**
+   * Returns the declarations that match the current element, merged as in {@link #mergeRules}. The
+   * collection can be changed by the caller.
+   */
+  Collection<Rule> matchingRules();
+}
@@ -0,0 +1,102 @@
+package net.pincette.csstoxslfo;
+
+import static net.pincette.css.sac.DocumentHandler.SAC_NO_URI;
+import static net.pincette.csstoxslfo.Compiled.ANY_ELEMENT;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * The symbol table for the events of the DFA. An event name such as <code>namespace|name</code> is
+ * mapped to a small integer once. A compiled style sheet has its own table, so the numbers are
+ * only valid within it. The copy of a style sheet gets a table that extends the one of the
+ * original. The symbols of the original are visible in it, but the new ones don't go into the
+ * original, so the table of a shared style sheet doesn't grow with the documents that extend it.
+ * Symbols are only created for the names in style sheets. The names in documents are only looked
+ * up.
+ *
+ * @author Werner Donné
+ */
+class Symbols {
+  private final int base;
+  private final List<String> names = new ArrayList<>();
+  private final Symbols parent;
+  private final Map<String, Integer> symbols = new ConcurrentHashMap<>();
+
+  Symbols() {
+    this(null);
+  }
+
+  /**
+   * Creates a table that extends <code>parent</code>. The symbols that are added to <code>parent
+   * </code> afterwards are not visible in it.
+   */
+  Symbols(final Symbols parent) {
+    this.parent = parent;
+    base = parent != null ? parent.size() : 0;
+  }
+
+  /**
+   * Returns the events that should be tried for an element, from the most to the least specific.
+   * Names that don't occur in the style sheet are left out, because there are no transitions for
+   * them.
+   *
+   * @param namespaceURI the namespace of the element. It is the empty string for no namespace.
+   * @param localName the name of the element.
+   * @return The event symbols.
+   */
+  int[] elementEvents(final String namespaceURI, final String localName) {
+    return ("".equals(namespaceURI)
+            ? Stream.of("*|" + localName, SAC_NO_URI + "|" + localName, ANY_ELEMENT)
+            : Stream.of(
+                namespaceURI + "|" + localName,
+                "*|" + localName,
+                namespaceURI + "|*",
+                ANY_ELEMENT))
+        .mapToInt(this::find)
+        .filter(id -> id != -1)
+        .toArray();
+  }
+
+  /** Returns the symbol for an event name or -1 if it doesn't exist. */
+  int find(final String name) {
+    final int inherited = parent != null ? parent.find(name) : -1;
+
+    if (inherited != -1 && inherited < base) {
+      return inherited;
+    }
+
+    final Integer result = symbols.get(name);
+
+    return result != null ? result : -1;
+  }
+
+  /** Returns the symbol for an event name. It is created if it doesn't exist yet. */
+  int id(final String name) {
+    final int result = find(name);
+
+    return result != -1 ? result : newId(name);
+  }
+
+  /** Returns the event name of a symbol. */
+  synchronized String name(final int id) {
+    return id < base ? parent.name(id) : names.get(id - base);
+  }
+
+  private synchronized int newId(final String name) {
+    return symbols.computeIfAbsent(
+        name,
+        n -> {
+          names.add(n);
+
+          return base + names.size() - 1;
+        });
+  }
+
+  private synchronized int size() {
+    return base + names.size();
+  }
+}
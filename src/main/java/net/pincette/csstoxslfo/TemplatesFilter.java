@@ -0,0 +1,123 @@
+package net.pincette.csstoxslfo;
+
+import static net.pincette.xml.sax.Util.newTemplatesHandler;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+/**
+ * Runs an XSLT style sheet on the documents that pass through. A transformer handler can be used
+ * for only one document, so a new one is created for every document, with the parameters of the
+ * configuration at that moment. This makes the filter reusable.
+ *
+ * @author Werner Donné
+ */
+class TemplatesFilter extends XMLFilterImpl {
+  private final Configuration configuration;
+  private final SAXTransformerFactory factory;
+  private TransformerHandler handler;
+  private Locator locator;
+  private final Templates templates;
+
+  /** The factory may be shared by several filters. It is locked while it is used. */
+  TemplatesFilter(
+      final Templates templates,
+      final SAXTransformerFactory factory,
+      final Configuration configuration) {
+    this.templates = templates;
+    this.factory = factory;
+    this.configuration = configuration;
+  }
+
+  @Override
+  public void characters(final char[] ch, final int start, final int length)
+      throws SAXException {
+    handler.characters(ch, start, length);
+  }
+
+  @Override
+  public void endDocument() throws SAXException {
+    try {
+      handler.endDocument();
+    } finally {
+      handler = null;
+      locator = null;
+    }
+  }
+
+  @Override
+  public void endElement(final String namespaceURI, final String localName, final String qName)
+      throws SAXException {
+    handler.endElement(namespaceURI, localName, qName);
+  }
+
+  @Override
+  public void endPrefixMapping(final String prefix) throws SAXException {
+    handler.endPrefixMapping(prefix);
+  }
+
+  @Override
+  public void ignorableWhitespace(final char[] ch, final int start, final int length)
+      throws SAXException {
+    handler.ignorableWhitespace(ch, start, length);
+  }
+
+  private TransformerHandler newHandler() throws SAXException {
+    try {
+      synchronized (factory) {
+        return newTemplatesHandler(templates, configuration.getParameters(), factory);
+      }
+    } catch (Exception e) {
+      throw new SAXException(e);
+    }
+  }
+
+  @Override
+  public void processingInstruction(final String target, final String data) throws SAXException {
+    handler.processingInstruction(target, data);
+  }
+
+  @Override
+  public void setDocumentLocator(final Locator locator) {
+    this.locator = locator;
+
+    if (handler != null) {
+      handler.setDocumentLocator(locator);
+    }
+  }
+
+  @Override
+  public void skippedEntity(final String name) throws SAXException {
+    handler.skippedEntity(name);
+  }
+
+  @Override
+  public void startDocument() throws SAXException {
+    handler = newHandler();
+    handler.setResult(new SAXResult(getContentHandler()));
+
+    if (locator != null) {
+      handler.setDocumentLocator(locator);
+    }
+
+    handler.startDocument();
+  }
+
+  @Override
+  public void startElement(
+      final String namespaceURI, final String localName, final String qName, final Attributes atts)
+      throws SAXException {
+    handler.startElement(namespaceURI, localName, qName, atts);
+  }
+
+  @Override
+  public void startPrefixMapping(final String prefix, final String uri) throws SAXException {
+    handler.startPrefixMapping(prefix, uri);
+  }
+}
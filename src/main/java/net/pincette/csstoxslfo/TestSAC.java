@@ -8,20 +8,13 @@ import java.io.File;
 import java.io.PrintWriter;
 import java.net.URL;
 import net.pincette.css.sac.CSSException;
-import net.pincette.css.sac.CharacterDataSelector;
-import net.pincette.css.sac.ConditionalSelector;
-import net.pincette.css.sac.DescendantSelector;
 import net.pincette.css.sac.DocumentHandler;
-import net.pincette.css.sac.ElementSelector;
 import net.pincette.css.sac.InputSource;
 import net.pincette.css.sac.LexicalUnit;
-import net.pincette.css.sac.NegativeSelector;
 import net.pincette.css.sac.Parser;
-import net.pincette.css.sac.ProcessingInstructionSelector;
 import net.pincette.css.sac.SACMediaList;
 import net.pincette.css.sac.Selector;
 import net.pincette.css.sac.SelectorList;
-import net.pincette.css.sac.SiblingSelector;
 import net.pincette.css.sac.helpers.ParserFactory;
 
 class TestSAC {
@@ -167,66 +160,6 @@ class TestSAC {
               + important);
     }
 
-    private String selectorText(final Selector selector) {
-      return switch (selector.getSelectorType()) {
-        case Selector.SAC_ANY_NODE_SELECTOR -> "(any)";
-        case Selector.SAC_CDATA_SECTION_NODE_SELECTOR ->
-            "(cdata: " + ((CharacterDataSelector) selector).getData() + ")";
-        case Selector.SAC_CHILD_SELECTOR ->
-            "(child: "
-                + selectorText(((DescendantSelector) selector).getAncestorSelector())
-                + " "
-                + selectorText(((DescendantSelector) selector).getSimpleSelector())
-                + ")";
-        case Selector.SAC_COMMENT_NODE_SELECTOR ->
-            "(comment: " + ((CharacterDataSelector) selector).getData() + ")";
-        case Selector.SAC_CONDITIONAL_SELECTOR ->
-            "(conditional: "
-                + Util.conditionText(((ConditionalSelector) selector).getCondition())
-                + " "
-                + selectorText(((ConditionalSelector) selector).getSimpleSelector())
-                + ")";
-        case Selector.SAC_DESCENDANT_SELECTOR ->
-            "(descendant: "
-                + selectorText(((DescendantSelector) selector).getAncestorSelector())
-                + " "
-                + selectorText(((DescendantSelector) selector).getSimpleSelector())
-                + ")";
-        case Selector.SAC_DIRECT_ADJACENT_SELECTOR ->
-            "(sibling: "
-                + selectorText(((SiblingSelector) selector).getSelector())
-                + " "
-                + selectorText(((SiblingSelector) selector).getSiblingSelector())
-                + ")";
-        case Selector.SAC_ELEMENT_NODE_SELECTOR ->
-            "(element: "
-                + (((ElementSelector) selector).getNamespaceURI() != null
-                    ? (((ElementSelector) selector).getNamespaceURI() + "#")
-                    : "")
-                + ((ElementSelector) selector).getLocalName()
-                + ")";
-        case Selector.SAC_NEGATIVE_SELECTOR ->
-            "(negative: " + selectorText(((NegativeSelector) selector).getSimpleSelector()) + ")";
-        case Selector.SAC_PROCESSING_INSTRUCTION_NODE_SELECTOR ->
-            "(pi: ("
-                + ((ProcessingInstructionSelector) selector).getData()
-                + ") ("
-                + ((ProcessingInstructionSelector) selector).getTarget()
-                + "))";
-        case Selector.SAC_PSEUDO_ELEMENT_SELECTOR ->
-            "(pseudo: "
-                + (((ElementSelector) selector).getNamespaceURI() != null
-                    ? (((ElementSelector) selector).getNamespaceURI() + "#")
-                    : "")
-                + ((ElementSelector) selector).getLocalName()
-                + ")";
-        case Selector.SAC_ROOT_NODE_SELECTOR -> "(root)";
-        case Selector.SAC_TEXT_NODE_SELECTOR ->
-            "(text: " + ((CharacterDataSelector) selector).getData() + ")";
-        default -> "(unknown)";
-      };
-    }
-
     public void startDocument(final InputSource source) throws CSSException {
       out.println("start document");
     }
@@ -257,7 +190,7 @@ class TestSAC {
       out.print("start selector:");
 
       for (int i = 0; i < selectors.getLength(); ++i) {
-        out.print(" " + selectorText(selectors.item(i)));
+        out.print(" " + Util.selectorText(selectors.item(i)));
       }
 
       out.println();
@@ -0,0 +1,224 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.logging.Level.SEVERE;
+import static java.util.logging.Logger.getGlobal;
+import static java.util.stream.Collectors.toMap;
+import static net.pincette.csstoxslfo.Util.getSacParser;
+import static net.pincette.xml.Util.isNameChar;
+import static net.pincette.xml.Util.isNameStartChar;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import net.pincette.css.sac.InputSource;
+import net.pincette.css.sac.Parser;
+import net.pincette.csstoxslfo.Events.StyleSheetParse;
+
+/**
+ * The compiled form of the initial style sheet, which consists of the <code>*{display: inline}
+ * </code> rule, the optional rule for the <code>html-header-mark</code> parameter and the user
+ * agent style sheet. It is shared by all conversions with the same user agent style sheet, screen
+ * mode, header mark and matching mode. It can also be loaded from a precompiled style sheet, which
+ * was made with {@link CompileStyleSheet}. An instance is immutable once it has been created, so it
+ * can be used by several threads at the same time.
+ *
+ * @author Werner Donné
+ */
+class UserAgentStyleSheet {
+  private static final int MAX_CACHED = 32;
+  private static final Map<Key, UserAgentStyleSheet> cache = new ConcurrentHashMap<>();
+
+  private final Compiled compiled;
+  private int lastRulePosition = 0;
+  private final Map<String, PageRule> pageRules = new HashMap<>();
+  private final IndexMatcher.RuleIndex ruleIndex;
+
+  /**
+   * When the precompiled style sheet can't be loaded, the failure is logged and the user agent
+   * style sheet is parsed instead. The result is cached like any other, so it is tried only once.
+   */
+  private UserAgentStyleSheet(final Key key) {
+    final Compiled loaded = key.precompiledStyleSheet != null ? load(key) : null;
+
+    if (loaded != null) {
+      compiled = loaded;
+    } else {
+      compiled = newCompiled(key);
+      parse(key);
+    }
+
+    ruleIndex = key.ruleIndexMode ? new IndexMatcher.RuleIndex(compiled.getRules()) : null;
+  }
+
+  /**
+   * Returns the shared compiled initial style sheet for <code>configuration</code>. At most 32
+   * variants are cached. The others are compiled for every conversion.
+   */
+  static UserAgentStyleSheet get(final Configuration configuration) {
+    final Key key =
+        new Key(
+            configuration.getUserAgentStyleSheet() != null
+                ? configuration.getUserAgentStyleSheet().toString()
+                : null,
+            configuration.getPrecompiledStyleSheet() != null
+                ? configuration.getPrecompiledStyleSheet().toString()
+                : null,
+            configuration.getScreenMode(),
+            configuration.getParameters().get("html-header-mark"),
+            configuration.getLazyDFAMode(),
+            configuration.getDFAStateCacheSize(),
+            configuration.getRuleIndexMode());
+    final UserAgentStyleSheet cached = cache.get(key);
+
+    if (cached != null) {
+      return cached;
+    }
+
+    return cache.size() < MAX_CACHED
+        ? cache.computeIfAbsent(key, UserAgentStyleSheet::new)
+        : new UserAgentStyleSheet(key);
+  }
+
+  /** The header mark is put in a rule, so it must be a name and nothing more. */
+  private static boolean isElementName(final String name) {
+    final boolean result =
+        !name.isEmpty()
+            && isNameStartChar(name.charAt(0))
+            && name.chars().allMatch(c -> isNameChar((char) c));
+
+    if (!result) {
+      getGlobal().log(SEVERE, "The html-header-mark {0} is not an element name.", name);
+    }
+
+    return result;
+  }
+
+  /** The DFA is also generated in rule index mode when the index is checked against it. */
+  private static Compiled newCompiled(final Key key) {
+    return new Compiled(
+        key.lazyDFAMode, key.dfaStateCacheSize, key.ruleIndexMode && !CheckingMatcher.ENABLED);
+  }
+
+  /**
+   * The DFA has been generated, except in rule index mode, where only the rules are collected. It
+   * should not be changed.
+   */
+  Compiled getCompiled() {
+    return compiled;
+  }
+
+  /** The position that should be used for the first rule after the initial style sheet. */
+  int getLastRulePosition() {
+    return lastRulePosition;
+  }
+
+  /** Returns a deep copy of the page rules, because they are completed during a conversion. */
+  Map<String, PageRule> getPageRules() {
+    return pageRules.entrySet().stream()
+        .collect(toMap(Entry::getKey, entry -> new PageRule(entry.getValue())));
+  }
+
+  /** The index of the rules in rule index mode, which is built only once. */
+  IndexMatcher.RuleIndex getRuleIndex() {
+    return ruleIndex;
+  }
+
+  private Compiled load(final Key key) {
+    final Compiled result = newCompiled(key);
+
+    try (final InputStream in = new URL(key.precompiledStyleSheet).openStream()) {
+      lastRulePosition = Precompiled.read(in, result, pageRules);
+
+      return result;
+    } catch (Exception e) {
+      lastRulePosition = 0;
+      pageRules.clear();
+      getGlobal()
+          .log(
+              SEVERE,
+              "The precompiled style sheet {0} can''t be loaded, so the user agent style sheet is "
+                  + "parsed instead: {1}",
+              new Object[] {key.precompiledStyleSheet, e.getMessage()});
+
+      return null;
+    }
+  }
+
+  private void parse(final Key key) {
+    parse(new InputSource(new StringReader("*{display: inline}")), null, key.screenMode, -2);
+
+    if (key.htmlHeaderMark != null && isElementName(key.htmlHeaderMark)) {
+      parse(
+          new InputSource(
+              new StringReader(key.htmlHeaderMark + "{string-set: component contents}")),
+          null,
+          key.screenMode,
+          -2);
+    }
+
+    if (key.userAgentStyleSheet != null) {
+      final InputSource source = new InputSource();
+
+      source.setURI(key.userAgentStyleSheet);
+      parse(source, key.userAgentStyleSheet, key.screenMode, -1);
+    }
+
+    compiled.generateDFA();
+  }
+
+  private void parse(
+      final InputSource source, final String uri, final boolean screenMode, final int offset) {
+    final StyleSheetParse event = new StyleSheetParse();
+
+    event.begin();
+
+    try {
+      final Parser parser = getSacParser();
+      final RuleCollector collector =
+          new RuleCollector(
+              compiled::addRule,
+              pageRules,
+              uri != null ? new URL(uri) : null,
+              screenMode,
+              lastRulePosition,
+              offset);
+
+      parser.setDocumentHandler(collector);
+      parser.parseStyleSheet(source);
+
+      if (event.shouldCommit()) {
+        event.rules = collector.getCurrentPosition() - lastRulePosition;
+        event.url = uri;
+        event.commit();
+      }
+
+      lastRulePosition = collector.getCurrentPosition();
+    } catch (Exception e) {
+      // Ignore absent or corrupt CSS style sheets.
+
+      if (e.getMessage() != null) {
+        getGlobal().log(SEVERE, e.getMessage());
+      }
+    }
+  }
+
+  /** Writes the binary form, which can be loaded with a precompiled style sheet URL. */
+  void write(final OutputStream out) throws IOException {
+    Precompiled.write(compiled, lastRulePosition, pageRules, out);
+  }
+
+  private record Key(
+      String userAgentStyleSheet,
+      String precompiledStyleSheet,
+      boolean screenMode,
+      String htmlHeaderMark,
+      boolean lazyDFAMode,
+      int dfaStateCacheSize,
+      boolean ruleIndexMode) {}
+}
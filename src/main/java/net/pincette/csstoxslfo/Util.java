@@ -62,11 +62,19 @@ import static net.pincette.css.sac.LexicalUnit.SAC_RECT_FUNCTION;
 import static net.pincette.css.sac.LexicalUnit.SAC_RGBCOLOR;
 import static net.pincette.css.sac.LexicalUnit.SAC_STRING_VALUE;
 import static net.pincette.css.sac.LexicalUnit.SAC_URI;
+import static net.pincette.css.sac.Selector.SAC_ANY_NODE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_CDATA_SECTION_NODE_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_CHILD_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_COMMENT_NODE_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_CONDITIONAL_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_DESCENDANT_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_DIRECT_ADJACENT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_ELEMENT_NODE_SELECTOR;
 import static net.pincette.css.sac.Selector.SAC_NEGATIVE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_PROCESSING_INSTRUCTION_NODE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_PSEUDO_ELEMENT_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_ROOT_NODE_SELECTOR;
+import static net.pincette.css.sac.Selector.SAC_TEXT_NODE_SELECTOR;
 import static net.pincette.csstoxslfo.Constants.CSS;
 import static net.pincette.csstoxslfo.Constants.SPECIF;
 import static net.pincette.csstoxslfo.PageSetupFilter.BLANK;
@@ -161,6 +169,7 @@ import static net.pincette.csstoxslfo.Property.WHITE_SPACE;
 import static net.pincette.csstoxslfo.Property.WIDOWS;
 import static net.pincette.csstoxslfo.Property.WIDTH;
 import static net.pincette.csstoxslfo.Property.WORD_SPACING;
+import static net.pincette.csstoxslfo.StageFilter.instrument;
 import static net.pincette.csstoxslfo.util.Util.getSystemProperty;
 import static net.pincette.util.Collections.set;
 import static net.pincette.util.StreamUtil.rangeInclusive;
@@ -196,22 +205,26 @@ import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.stream.StreamSource;
 import net.pincette.css.sac.AttributeCondition;
 import net.pincette.css.sac.CSSException;
+import net.pincette.css.sac.CharacterDataSelector;
 import net.pincette.css.sac.CombinatorCondition;
 import net.pincette.css.sac.Condition;
 import net.pincette.css.sac.ConditionalSelector;
 import net.pincette.css.sac.ContentCondition;
 import net.pincette.css.sac.DescendantSelector;
+import net.pincette.css.sac.ElementSelector;
 import net.pincette.css.sac.LangCondition;
 import net.pincette.css.sac.LexicalUnit;
 import net.pincette.css.sac.NegativeCondition;
 import net.pincette.css.sac.NegativeSelector;
 import net.pincette.css.sac.Parser;
 import net.pincette.css.sac.PositionalCondition;
+import net.pincette.css.sac.ProcessingInstructionSelector;
 import net.pincette.css.sac.Selector;
 import net.pincette.css.sac.SiblingSelector;
 import net.pincette.util.Cases;
 import net.pincette.util.StreamUtil;
 import net.pincette.xml.sax.FilterOfFilters;
+import net.pincette.xml.sax.ProtectEventHandlerFilter;
 import net.pincette.xmlmerge.Merge;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -382,7 +395,7 @@ public class Util {
   };
   private static final String[] PSEUDO_PAGE_NAMES = {BLANK, FIRST, LAST, LEFT, RIGHT};
 
-  private static Class<?> sacParserClass = null;
+  private static volatile Class<?> sacParserClass = null;
 
   private Util() {}
 
@@ -523,33 +536,51 @@ public class Util {
         from.getValue(position));
   }
 
+  /**
+   * Creates the reader that feeds the conversion. It merges the data into the document and runs
+   * the preprocessors.
+   */
+  static XMLFilter createParentFilter(final InputStream data, final Configuration configuration)
+      throws SAXException, TransformerConfigurationException {
+    final XMLFilter parent =
+        new ProtectEventHandlerFilter(true, true, addMerge(data, configuration));
+
+    return configuration.getPreprocessors() != null
+        ? createPreprocessorFilter(configuration.getPreprocessors(), parent)
+        : parent;
+  }
+
+  /**
+   * The filters are instrumented when <code>stats</code> is not <code>null</code>. Only the main
+   * chain should pass it, because the stages are identified by the class names of the filters.
+   */
   static Supplier<XMLFilterImpl> createPostProjectionFilter(
-      final Configuration configuration, final boolean debug, final Set<String> includeClassNames) {
+      final Configuration configuration,
+      final ConversionStats stats,
+      final boolean debug,
+      final Set<String> includeClassNames) {
     final XMLFilterImpl filter =
         new FilterOfFilters(
-            new XMLFilter[] {
-              new BookmarkFilter(),
-              new WrapperFilter(),
-              new DisplayNonePropagator(),
-              new ForeignFilter(),
-              new FirstLetterFilter(),
-              configuration.getParameters() != null
-                      && configuration.getParameters().get(RULE_THICKNESS) != null
-                  ? new XHTMLAttributeTranslationFilter(
-                      configuration.getParameters().get(RULE_THICKNESS))
-                  : new XHTMLAttributeTranslationFilter(),
-              new NormalizeTableFilter(),
-              new CenterFilter(),
-              new LengthAdjustFilter(),
-              new WidthAndMarginsFilter(),
-              new MarkerFilter(),
-              new LinkFilter(configuration),
-              new FootnoteFilter(),
-              new BlockContainerFilter(),
-              new ListImageLabelFilter(),
-              new ListItemFilter(),
-              new InvalidPropertyFilter()
-            },
+            Stream.of(
+                new BookmarkFilter(),
+                new WrapperFilter(),
+                new DisplayNonePropagator(),
+                new ForeignFilter(),
+                new FirstLetterFilter(),
+                new XHTMLAttributeTranslationFilter(configuration),
+                new NormalizeTableFilter(),
+                new CenterFilter(),
+                new LengthAdjustFilter(),
+                new WidthAndMarginsFilter(),
+                new MarkerFilter(),
+                new LinkFilter(configuration),
+                new FootnoteFilter(),
+                new BlockContainerFilter(),
+                new ListImageLabelFilter(),
+                new ListItemFilter(),
+                new InvalidPropertyFilter())
+                .map(f -> instrument(f, stats))
+                .toArray(XMLFilter[]::new),
             debug,
             includeClassNames);
 
@@ -941,10 +972,16 @@ public class Util {
     out.println("  [-config url_or_filename]: extra configuration");
     out.println("  [-p url_or_filename_comma_list]: preprocessors");
     out.println("  [-uacss url_or_filename]: User Agent style sheet");
+    out.println("  [-precompiled url_or_filename]: precompiled User Agent style sheet");
     out.println(
         "  [-data url_or_filename]: XML data to merge into the document prior " + "to conversion");
     out.println("  [-v]: turn on validation");
     out.println("  [-screen]: turn on screen mode");
+    out.println("  [-lazy-dfa]: generate the DFA states of the style sheets on demand");
+    out.println("  [-dfa-cache size]: maximum number of DFA states in lazy mode (default: 10000)");
+    out.println("  [-rule-index]: match the rules with an index instead of a DFA");
+    out.println("  [-chunked]: run the XSLT style sheet per page sequence");
+    out.println("  [-pipelined]: run the XSLT style sheet on another thread");
     out.println("  [url_or_filename]: the input document, uses stdin by default");
     out.println("  [parameter=value ...] ");
   }
@@ -1000,6 +1037,66 @@ public class Util {
         .ifPresent(atts::removeAttribute);
   }
 
+  static String selectorText(final Selector selector) {
+    return switch (selector.getSelectorType()) {
+      case SAC_ANY_NODE_SELECTOR -> "(any)";
+      case SAC_CDATA_SECTION_NODE_SELECTOR ->
+          "(cdata: " + ((CharacterDataSelector) selector).getData() + ")";
+      case SAC_CHILD_SELECTOR ->
+          "(child: "
+              + selectorText(((DescendantSelector) selector).getAncestorSelector())
+              + " "
+              + selectorText(((DescendantSelector) selector).getSimpleSelector())
+              + ")";
+      case SAC_COMMENT_NODE_SELECTOR ->
+          "(comment: " + ((CharacterDataSelector) selector).getData() + ")";
+      case SAC_CONDITIONAL_SELECTOR ->
+          "(conditional: "
+              + conditionText(((ConditionalSelector) selector).getCondition())
+              + " "
+              + selectorText(((ConditionalSelector) selector).getSimpleSelector())
+              + ")";
+      case SAC_DESCENDANT_SELECTOR ->
+          "(descendant: "
+              + selectorText(((DescendantSelector) selector).getAncestorSelector())
+              + " "
+              + selectorText(((DescendantSelector) selector).getSimpleSelector())
+              + ")";
+      case SAC_DIRECT_ADJACENT_SELECTOR ->
+          "(sibling: "
+              + selectorText(((SiblingSelector) selector).getSelector())
+              + " "
+              + selectorText(((SiblingSelector) selector).getSiblingSelector())
+              + ")";
+      case SAC_ELEMENT_NODE_SELECTOR ->
+          "(element: "
+              + (((ElementSelector) selector).getNamespaceURI() != null
+                  ? (((ElementSelector) selector).getNamespaceURI() + "#")
+                  : "")
+              + ((ElementSelector) selector).getLocalName()
+              + ")";
+      case SAC_NEGATIVE_SELECTOR ->
+          "(negative: " + selectorText(((NegativeSelector) selector).getSimpleSelector()) + ")";
+      case SAC_PROCESSING_INSTRUCTION_NODE_SELECTOR ->
+          "(pi: ("
+              + ((ProcessingInstructionSelector) selector).getData()
+              + ") ("
+              + ((ProcessingInstructionSelector) selector).getTarget()
+              + "))";
+      case SAC_PSEUDO_ELEMENT_SELECTOR ->
+          "(pseudo: "
+              + (((ElementSelector) selector).getNamespaceURI() != null
+                  ? (((ElementSelector) selector).getNamespaceURI() + "#")
+                  : "")
+              + ((ElementSelector) selector).getLocalName()
+              + ")";
+      case SAC_ROOT_NODE_SELECTOR -> "(root)";
+      case SAC_TEXT_NODE_SELECTOR ->
+          "(text: " + ((CharacterDataSelector) selector).getData() + ")";
+      default -> "(unknown)";
+    };
+  }
+
   static AttributesImpl setAttribute(
       final AttributesImpl attributes,
       final String namespaceURI,
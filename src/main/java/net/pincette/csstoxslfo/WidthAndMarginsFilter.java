@@ -49,7 +49,7 @@ class WidthAndMarginsFilter extends XMLFilterImpl {
   private static final String THICK = "thick";
   private static final String THIN = "thin";
 
-  private final Deque<Attributes> stack = new ArrayDeque<>();
+  private final Deque<Boolean> tableCells = new ArrayDeque<>();
 
   WidthAndMarginsFilter() {}
 
@@ -132,7 +132,7 @@ class WidthAndMarginsFilter extends XMLFilterImpl {
   public void endElement(final String namespaceURI, final String localName, final String qName)
       throws SAXException {
     super.endElement(namespaceURI, localName, qName);
-    stack.pop();
+    tableCells.pop();
   }
 
   private static String getBorderWidth(final Attributes atts, final String edge) {
@@ -160,7 +160,7 @@ class WidthAndMarginsFilter extends XMLFilterImpl {
         && !FIXED.equals(atts.getValue(CSS, POSITION))
         && (
         // If the parent is a table-cell, we leave it (too complicated).
-        stack.isEmpty() || !TABLE_CELL.equals(stack.peek().getValue(CSS, DISPLAY)));
+        tableCells.isEmpty() || !tableCells.peek());
   }
 
   private static void makeAutoExplicit(final AttributesImpl atts, final String property) {
@@ -183,6 +183,12 @@ class WidthAndMarginsFilter extends XMLFilterImpl {
     }
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    tableCells.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -202,7 +208,7 @@ class WidthAndMarginsFilter extends XMLFilterImpl {
       }
     }
 
-    stack.push(new AttributesImpl(newAtts));
+    tableCells.push(TABLE_CELL.equals(display));
     super.startElement(namespaceURI, localName, qName, newAtts);
   }
 }
@@ -44,6 +44,12 @@ class WrapperFilter extends XMLFilterImpl {
         attributes(atts).filter(a -> CSS.equals(a.namespaceURI) && isInherited(a.localName)));
   }
 
+  @Override
+  public void startDocument() throws SAXException {
+    elements.clear();
+    super.startDocument();
+  }
+
   @Override
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
@@ -56,6 +56,7 @@ import static net.pincette.csstoxslfo.Util.NAME;
 import static net.pincette.csstoxslfo.Util.NONE;
 import static net.pincette.csstoxslfo.Util.RETAIN;
 import static net.pincette.csstoxslfo.Util.RIGHT;
+import static net.pincette.csstoxslfo.Util.RULE_THICKNESS;
 import static net.pincette.csstoxslfo.Util.STYLE;
 import static net.pincette.csstoxslfo.Util.TOP;
 import static net.pincette.csstoxslfo.Util.UPPER_ALPHA;
@@ -64,6 +65,7 @@ import static net.pincette.csstoxslfo.Util.inArray;
 import static net.pincette.csstoxslfo.Util.removeAttribute;
 import static net.pincette.util.Collections.list;
 import static net.pincette.util.Collections.map;
+import static net.pincette.util.Collections.set;
 import static net.pincette.util.Pair.pair;
 import static net.pincette.util.Util.tryToGetSilent;
 import static net.pincette.xml.Util.isNameChar;
@@ -81,7 +83,6 @@ import java.util.Set;
 import java.util.function.IntSupplier;
 import net.pincette.util.Cases;
 import net.pincette.util.Collections;
-import net.pincette.util.Pair;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -112,6 +113,7 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
   private static final String COLS = "cols";
   private static final String COLSPAN = "colspan";
   private static final String COMPACT = "compact";
+  private static final String DEFAULT_RULE_THICKNESS = "0.2pt";
   private static final String DIV = "div";
   private static final String FACE = "face";
   private static final String FONT = "font";
@@ -301,21 +303,24 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
             {UL, COMPACT, null, LIST_STYLE_POSITION, INSIDE},
             {UL, TYPE, null, LIST_STYLE_TYPE, null}
           });
+  private static final Set<String> TABLE_ELEMENTS =
+      set(COL, COLGROUP, TABLE, TBODY, TD, TFOOT, TH, THEAD, TR);
   private static final Map<String, PropertyResolver> PROPERTY_RESOLVERS =
       map(pair("fontSize", XHTMLAttributeTranslationFilter::fontSize));
 
-  private final String defaultBorderThickness;
+  private final Configuration configuration;
+  private String defaultBorderThickness;
   private String defaultLinkColor;
-  private final Deque<Pair<Element, Preceding>> elementStack = new ArrayDeque<>();
+  private final Deque<Preceding> elementStack = new ArrayDeque<>();
   private final Set<String> generatedIds = new HashSet<>();
   private final Deque<Element> tableStack = new ArrayDeque<>();
 
-  XHTMLAttributeTranslationFilter() {
-    this("0.2pt");
-  }
-
-  XHTMLAttributeTranslationFilter(final String defaultBorderThickness) {
-    this.defaultBorderThickness = defaultBorderThickness;
+  /**
+   * The <code>rule-thickness</code> parameter is read at the start of every document, because the
+   * parameters of the configuration can change between documents.
+   */
+  XHTMLAttributeTranslationFilter(final Configuration configuration) {
+    this.configuration = configuration;
   }
 
   private static String callPropertyResolver(
@@ -379,6 +384,20 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
         .toArray(Tuple[]::new);
   }
 
+  private static boolean mustTranslate(final String localName, final Attributes atts) {
+    if (Objects.equals(A, localName) || TABLE_ELEMENTS.contains(localName)) {
+      return true;
+    }
+
+    for (int i = 0; i < atts.getLength(); ++i) {
+      if (atts.getURI(i).isEmpty() && MAP.containsKey(localName + "#" + atts.getLocalName(i))) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
   private static String nameToId(final String name) {
     return Optional.of(name)
         .filter(n -> !n.isEmpty())
@@ -493,11 +512,9 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
     ofNullable(elementStack.peek())
         .ifPresent(
             parent -> {
-              parent.second.count =
-                  equivalentSibling(localName, parent.second.element)
-                      ? (parent.second.count + 1)
-                      : 1;
-              parent.second.element = localName;
+              parent.count =
+                  equivalentSibling(localName, parent.element) ? (parent.count + 1) : 1;
+              parent.element = localName;
             });
   }
 
@@ -552,12 +569,12 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
     }
 
     final String borderWidth = border == null ? defaultBorderThickness : (border + "px");
-    final Pair<Element, Preceding> parent = elementStack.peek();
+    final Preceding parent = elementStack.peek();
 
     if (((border != null && rules == null) || inArray(rulesValues, rules))
         && parent != null
-        && equivalentSibling(localName, parent.second.element)
-        && parent.second.count > 0) {
+        && equivalentSibling(localName, parent.element)
+        && parent.count > 0) {
       removeAttribute(result, BORDER);
       setCSSAttribute(result, BORDER + "-" + borderSide + "-" + WIDTH, borderWidth);
       setCSSAttribute(result, BORDER + "-" + borderSide + "-" + STYLE, SOLID);
@@ -660,34 +677,51 @@ class XHTMLAttributeTranslationFilter extends XMLFilterImpl {
   }
 
   @Override
+  public void startDocument() throws SAXException {
+    defaultBorderThickness =
+        ofNullable(configuration.getParameters())
+            .map(parameters -> parameters.get(RULE_THICKNESS))
+            .orElse(DEFAULT_RULE_THICKNESS);
+    elementStack.clear();
+    generatedIds.clear();
+    tableStack.clear();
+    super.startDocument();
+  }
+
   public void startElement(
       final String namespaceURI, final String localName, final String qName, final Attributes atts)
       throws SAXException {
     if (Objects.equals(XHTML, namespaceURI)) {
-      final Element element = new Element(namespaceURI, localName, qName, atts);
-
       if (Objects.equals(TABLE, localName)) {
-        tableStack.push(element);
+        tableStack.push(new Element(namespaceURI, localName, qName, atts));
       } else if (Objects.equals(BODY, localName)) {
         defaultLinkColor = atts.getValue(LINK);
       }
 
-      final AttributesImpl newAtts = prepareTableAttributes(localName, atts);
-
-      translateAttributes(localName, atts, newAtts);
-
-      if (Objects.equals(A, localName)) {
-        anchor(newAtts);
-      }
+      // Most elements have nothing to translate, so their attributes are not copied.
+      final Attributes newAtts =
+          mustTranslate(localName, atts) ? translateAttributes(localName, atts) : atts;
 
       countPreceding(localName);
-      elementStack.push(pair(element, new Preceding()));
+      elementStack.push(new Preceding());
       super.startElement(namespaceURI, localName, qName, newAtts);
     } else {
       super.startElement(namespaceURI, localName, qName, atts);
     }
   }
 
+  private AttributesImpl translateAttributes(final String localName, final Attributes atts) {
+    final AttributesImpl newAtts = prepareTableAttributes(localName, atts);
+
+    translateAttributes(localName, atts, newAtts);
+
+    if (Objects.equals(A, localName)) {
+      anchor(newAtts);
+    }
+
+    return newAtts;
+  }
+
   private static class Preceding {
     private int count = 0;
     private String element;
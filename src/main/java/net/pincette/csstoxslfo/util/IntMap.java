@@ -0,0 +1,160 @@
+package net.pincette.csstoxslfo.util;
+
+import static java.util.Arrays.binarySearch;
+import static java.util.Arrays.sort;
+
+/**
+ * A map with non-negative integer keys that uses open addressing. Looking up a key doesn't
+ * allocate anything. When no more keys will be added the map can be frozen. It then keeps its keys
+ * in a sorted array of the exact size, which is searched with binary search.
+ *
+ * @author Werner Donné
+ */
+public class IntMap<T> {
+  private static final int EMPTY = -1;
+  private static final int[] NO_KEYS = new int[0];
+  private static final Object[] NO_VALUES = new Object[0];
+
+  private boolean frozen;
+  private int[] keys;
+  private int size;
+  private Object[] values;
+
+  public IntMap() {
+    this(2);
+  }
+
+  public IntMap(final int capacity) {
+    int length = 4;
+
+    while (length < capacity * 2) {
+      length <<= 1;
+    }
+
+    allocate(length);
+  }
+
+  private static int hash(final int key) {
+    final int h = key * 0x9E3779B9;
+
+    return h ^ (h >>> 16);
+  }
+
+  private void allocate(final int length) {
+    keys = new int[length];
+    values = new Object[length];
+    size = 0;
+
+    for (int i = 0; i < length; ++i) {
+      keys[i] = EMPTY;
+    }
+  }
+
+  /**
+   * Replaces the hash table with sorted arrays of the exact size. After this the map can't be
+   * changed anymore.
+   */
+  public void freeze() {
+    if (!frozen) {
+      final int[] sortedKeys = size == 0 ? NO_KEYS : keys();
+      final Object[] sortedValues = size == 0 ? NO_VALUES : new Object[size];
+
+      sort(sortedKeys);
+
+      for (int i = 0; i < sortedKeys.length; ++i) {
+        sortedValues[i] = get(sortedKeys[i]);
+      }
+
+      keys = sortedKeys;
+      values = sortedValues;
+      frozen = true;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public T get(final int key) {
+    if (frozen) {
+      final int index = binarySearch(keys, key);
+
+      return index >= 0 ? (T) values[index] : null;
+    }
+
+    final int mask = keys.length - 1;
+
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      if (keys[i] == key) {
+        return (T) values[i];
+      }
+
+      if (keys[i] == EMPTY) {
+        return null;
+      }
+    }
+  }
+
+  /** Returns the keys in no particular order. */
+  public int[] keys() {
+    if (frozen) {
+      return keys.clone();
+    }
+
+    final int[] result = new int[size];
+    int j = 0;
+
+    for (final int key : keys) {
+      if (key != EMPTY) {
+        result[j++] = key;
+      }
+    }
+
+    return result;
+  }
+
+  public void put(final int key, final T value) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Negative key " + key);
+    }
+
+    if (frozen) {
+      throw new IllegalStateException("The map is frozen");
+    }
+
+    if ((size + 1) * 2 > keys.length) {
+      rehash(keys.length << 1);
+    }
+
+    final int mask = keys.length - 1;
+    int i = hash(key) & mask;
+
+    while (keys[i] != EMPTY && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+
+    if (keys[i] == EMPTY) {
+      keys[i] = key;
+      ++size;
+    }
+
+    values[i] = value;
+  }
+
+  private void rehash(final int length) {
+    final int[] oldKeys = keys;
+    final Object[] oldValues = values;
+
+    allocate(length);
+
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldKeys[i] != EMPTY) {
+        @SuppressWarnings("unchecked")
+        final T value = (T) oldValues[i];
+
+        put(oldKeys[i], value);
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+}
@@ -0,0 +1,77 @@
+package net.pincette.csstoxslfo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.pincette.csstoxslfo.Conversions.canonical;
+import static net.pincette.csstoxslfo.Conversions.document;
+import static net.pincette.csstoxslfo.Conversions.fresh;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Werner Donné
+ */
+class ChunkedTemplatesFilterTest {
+  private static final String BODY =
+      "<h1 id=\"a\">One</h1><div class=\"first\"><p>First</p><p>Page</p></div>"
+          + "<h1 id=\"b\">Two</h1><div class=\"second\"><p>Second</p><p>Page</p></div>"
+          + "<div class=\"first\"><p>Third</p></div>";
+  private static final String STYLE =
+      "@page first { size: a4 } @page second { size: a5 landscape }"
+          + "div.first { page: first } div.second { page: second }"
+          + "h1 { bookmark-label: content(); bookmark-level: 1 }";
+
+  private static Configuration chunked() {
+    final Configuration configuration = new Configuration();
+
+    configuration.setChunkedTransformationMode(true);
+
+    return configuration;
+  }
+
+  private static long spools() throws IOException {
+    try (final Stream<Path> files = Files.list(Path.of(System.getProperty("java.io.tmpdir")))) {
+      return files
+          .map(f -> f.getFileName().toString())
+          .filter(f -> f.startsWith("csstoxslfo") && f.endsWith(".xml"))
+          .count();
+    }
+  }
+
+  @Test
+  void noSpoolAfterFailure() throws Exception {
+    final String truncated = document(STYLE, BODY + BODY);
+    final byte[] bytes = truncated.substring(0, truncated.lastIndexOf("<div")).getBytes(UTF_8);
+    final long before = spools();
+
+    assertThrows(
+        IOException.class,
+        () ->
+            new ConverterEngine(chunked(), 1)
+                .convert(new ByteArrayInputStream(bytes), null, OutputStream.nullOutputStream()));
+    assertEquals(before, spools());
+  }
+
+  @Test
+  void sameAsUnchunked() throws Exception {
+    final String document = document(STYLE, BODY);
+
+    assertEquals(
+        canonical(fresh(new Configuration(), document)), canonical(fresh(chunked(), document)));
+  }
+
+  @Test
+  void sameAsUnchunkedWithoutPages() throws Exception {
+    final String document = document("h1 { bookmark-label: content() }", BODY);
+
+    assertEquals(
+        canonical(fresh(new Configuration(), document)), canonical(fresh(chunked(), document)));
+  }
+}
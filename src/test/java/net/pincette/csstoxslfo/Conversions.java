@@ -0,0 +1,125 @@
+package net.pincette.csstoxslfo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static net.pincette.csstoxslfo.Util.createParentFilter;
+import static net.pincette.xml.sax.Util.newSAXTransformerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import net.pincette.csstoxslfo.util.EscapedXMLStreamWriter;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Runs test documents through the converter, either with a new filter chain or with a pooled
+ * pipeline of an engine.
+ *
+ * @author Werner Donné
+ */
+class Conversions {
+  private Conversions() {}
+
+  /**
+   * Returns the elements, attributes and text of an XML document in a form that doesn't depend on
+   * namespace prefixes, the order of attributes or whitespace between elements.
+   */
+  static String canonical(final String xml)
+      throws IOException, ParserConfigurationException, SAXException {
+    final SAXParserFactory factory = SAXParserFactory.newInstance();
+    final Canonical canonical = new Canonical();
+
+    factory.setNamespaceAware(true);
+    factory.newSAXParser().parse(new ByteArrayInputStream(xml.getBytes(UTF_8)), canonical);
+
+    return canonical.result.toString();
+  }
+
+  /** Returns an XHTML document with the style sheet in the head. */
+  static String document(final String style, final String body) {
+    return "<html xmlns=\"http://www.w3.org/1999/xhtml\"><head><style type=\"text/css\">"
+        + style
+        + "</style></head><body>"
+        + body
+        + "</body></html>";
+  }
+
+  /** Converts the document with a new {@link CSSToXSLFOFilter}. */
+  static String fresh(final Configuration configuration, final String document)
+      throws IOException, SAXException, TransformerConfigurationException {
+    final Configuration copy = new Configuration(configuration);
+    final CSSToXSLFOFilter filter = new CSSToXSLFOFilter(copy, createParentFilter(null, copy));
+    final TransformerHandler handler = newSAXTransformerFactory().newTransformerHandler();
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    handler.setResult(new StreamResult(new EscapedXMLStreamWriter(out)));
+    filter.setContentHandler(handler);
+    filter.parse(new InputSource(new ByteArrayInputStream(document.getBytes(UTF_8))));
+
+    return out.toString(UTF_8);
+  }
+
+  /** Converts the document with a pipeline of the engine. */
+  static String pooled(final ConverterEngine engine, final String document) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    engine.convert(new ByteArrayInputStream(document.getBytes(UTF_8)), null, out);
+
+    return out.toString(UTF_8);
+  }
+
+  private static class Canonical extends DefaultHandler {
+    private final StringBuilder result = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      text.append(ch, start, length);
+    }
+
+    @Override
+    public void endElement(final String namespaceURI, final String localName, final String qName) {
+      flushText();
+      result.append("</{").append(namespaceURI).append('}').append(localName).append(">\n");
+    }
+
+    private void flushText() {
+      final String trimmed = text.toString().trim();
+
+      if (!trimmed.isEmpty()) {
+        result.append(trimmed).append('\n');
+      }
+
+      text.setLength(0);
+    }
+
+    @Override
+    public void startElement(
+        final String namespaceURI,
+        final String localName,
+        final String qName,
+        final Attributes atts) {
+      final Map<String, String> attributes = new TreeMap<>();
+
+      flushText();
+
+      for (int i = 0; i < atts.getLength(); ++i) {
+        attributes.put("{" + atts.getURI(i) + "}" + atts.getLocalName(i), atts.getValue(i));
+      }
+
+      result.append("<{").append(namespaceURI).append('}').append(localName);
+      attributes.forEach(
+          (k, v) -> result.append(' ').append(k).append("=\"").append(v).append('"'));
+      result.append(">\n");
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.stream.IntStream.range;
+import static net.pincette.csstoxslfo.Conversions.document;
+import static net.pincette.csstoxslfo.Conversions.fresh;
+import static net.pincette.csstoxslfo.Conversions.pooled;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Werner Donné
+ */
+class ConverterEngineTest {
+  private static final Pattern BOOKMARK_TITLE = Pattern.compile("<fo:bookmark-title>");
+  private static final String FIRST =
+      document(
+          "h1 { bookmark-label: content(); bookmark-level: 1 }"
+              + "h2 { bookmark-label: content(); bookmark-level: 2 }"
+              + "table { width: 100% }",
+          "<h1 id=\"a\">One</h1><h2 id=\"b\">Two</h2><ul><li><a href=\"#a\">Link</a></li></ul>"
+              + "<table><tr><td>1</td><td>2</td></tr></table><p>Text</p>");
+  private static final int ROUNDS = 64;
+  private static final String SECOND =
+      document(
+          "h1 { bookmark-label: content(); bookmark-level: 1 }",
+          "<h1 id=\"c\">Three</h1><ol><li>Item</li></ol><p>Text</p>");
+  private static final int THREADS = 8;
+
+  private static int count(final Pattern pattern, final String s) {
+    final Matcher matcher = pattern.matcher(s);
+    int result = 0;
+
+    while (matcher.find()) {
+      ++result;
+    }
+
+    return result;
+  }
+
+  @Test
+  void sameAsFreshFilters() throws Exception {
+    final Configuration configuration = new Configuration();
+    final ConverterEngine engine = new ConverterEngine(configuration, 1);
+
+    assertEquals(fresh(configuration, FIRST), pooled(engine, FIRST));
+    assertEquals(fresh(configuration, SECOND), pooled(engine, SECOND));
+    assertEquals(fresh(configuration, FIRST), pooled(engine, FIRST));
+  }
+
+  @Test
+  void concurrentSameAsFreshFilters() throws Exception {
+    final Configuration configuration = new Configuration();
+    final ConverterEngine engine = new ConverterEngine(configuration, THREADS);
+    final List<String> documents = List.of(FIRST, SECOND);
+    final List<String> expected =
+        List.of(fresh(configuration, FIRST), fresh(configuration, SECOND));
+    final ExecutorService executor = newFixedThreadPool(THREADS);
+
+    try {
+      final List<Future<String>> results =
+          executor.invokeAll(
+              range(0, ROUNDS)
+                  .mapToObj(i -> (Callable<String>) () -> pooled(engine, documents.get(i % 2)))
+                  .toList());
+
+      for (int i = 0; i < results.size(); ++i) {
+        assertEquals(expected.get(i % 2), results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  void noBookmarksOfEarlierDocuments() throws Exception {
+    final ConverterEngine engine = new ConverterEngine(new Configuration(), 1);
+
+    assertEquals(2, count(BOOKMARK_TITLE, pooled(engine, FIRST)));
+    assertEquals(1, count(BOOKMARK_TITLE, pooled(engine, SECOND)));
+  }
+}
@@ -0,0 +1,82 @@
+package net.pincette.csstoxslfo;
+
+import static net.pincette.csstoxslfo.StyleSheets.compile;
+import static net.pincette.csstoxslfo.StyleSheets.document;
+import static net.pincette.csstoxslfo.StyleSheets.match;
+import static net.pincette.csstoxslfo.StyleSheets.rules;
+import static net.pincette.csstoxslfo.StyleSheets.synthetic;
+import static net.pincette.csstoxslfo.StyleSheets.userAgent;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the rule index finds the same rules as the DFA, eagerly and lazily generated.
+ *
+ * @author Werner Donné
+ */
+class IndexMatcherTest {
+  private static void assertSameRules(final List<Rule> rules, final List<Object[]> document)
+      throws Exception {
+    final List<Collection<Rule>> expected =
+        matched(new Matcher(compile(rules, false), null), document);
+
+    assertEquals(expected, matched(new Matcher(compile(rules, true), null), document));
+    assertEquals(
+        expected,
+        matched(new IndexMatcher(new IndexMatcher.RuleIndex(rules), List.of(), null), document));
+  }
+
+  private static List<Collection<Rule>> matched(
+      final StyleMatcher matcher, final List<Object[]> document) throws Exception {
+    final List<Collection<Rule>> result = new ArrayList<>();
+
+    match(
+        matcher,
+        document,
+        m -> {
+          result.add(new ArrayList<>(m.matchingRules()));
+          result.add(new ArrayList<>(m.matchingPseudoRules()));
+        });
+
+    return result;
+  }
+
+  @Test
+  void documentRulesOnTopOfBase() throws Exception {
+    final List<Rule> base = userAgent();
+    final List<Rule> extra =
+        rules(synthetic(200, 20, 3), base.stream().mapToInt(Rule::getPosition).max().orElse(0) + 1);
+    final List<Rule> all = new ArrayList<>(base);
+    final Compiled compiled = compile(base, false);
+    final List<Object[]> document = document(500, 20, 4);
+
+    all.addAll(extra);
+
+    final Compiled extended = new Compiled(compiled);
+
+    extra.forEach(extended::addRule);
+    extended.generateDFA();
+
+    final List<Collection<Rule>> expected =
+        matched(new Matcher(compile(all, false), null), document);
+
+    assertEquals(expected, matched(new Matcher(extended, null), document));
+    assertEquals(
+        expected,
+        matched(new IndexMatcher(new IndexMatcher.RuleIndex(base), extra, null), document));
+  }
+
+  @Test
+  void largeStyleSheet() throws Exception {
+    assertSameRules(rules(synthetic(2000, 100, 1)), document(2000, 100, 2));
+  }
+
+  @Test
+  void userAgentStyleSheet() throws Exception {
+    assertSameRules(userAgent(), document(1000, 10, 5));
+  }
+}
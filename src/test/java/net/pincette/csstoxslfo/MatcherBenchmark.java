@@ -0,0 +1,80 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static net.pincette.csstoxslfo.StyleSheets.compile;
+import static net.pincette.csstoxslfo.StyleSheets.document;
+import static net.pincette.csstoxslfo.StyleSheets.rules;
+import static net.pincette.csstoxslfo.StyleSheets.synthetic;
+import static net.pincette.csstoxslfo.StyleSheets.userAgent;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the DFA {@link Matcher} with the {@link IndexMatcher} on the user agent style sheet and
+ * on a generated one with 5000 rules. The time is that of matching a document of 2000 elements.
+ * The style sheets are compiled once, so the generation of the DFA isn't included. Run it with
+ * <code>mvn test-compile</code> and then <code>java -cp
+ * target/test-classes:target/classes:&lt;dependencies&gt; net.pincette.csstoxslfo.MatcherBenchmark
+ * </code>.
+ *
+ * @author Werner Donné
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(1)
+@Measurement(iterations = 5, time = 2)
+@OutputTimeUnit(MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+public class MatcherBenchmark {
+  private Compiled compiled;
+  private List<Object[]> document;
+  private IndexMatcher.RuleIndex index;
+
+  @Param({"dfa", "index"})
+  public String matcher;
+
+  @Param({"small", "large"})
+  public String styleSheet;
+
+  public static void main(final String[] args) throws RunnerException {
+    new Runner(new OptionsBuilder().include(MatcherBenchmark.class.getSimpleName()).build()).run();
+  }
+
+  @Benchmark
+  public void match(final Blackhole blackhole) throws Exception {
+    StyleSheets.match(
+        "dfa".equals(matcher)
+            ? new Matcher(compiled, null)
+            : new IndexMatcher(index, List.of(), null),
+        document,
+        m -> {
+          blackhole.consume(m.matchingRules());
+          blackhole.consume(m.matchingPseudoRules());
+        });
+  }
+
+  @Setup
+  public void setup() throws Exception {
+    final boolean small = "small".equals(styleSheet);
+    final List<Rule> rules = small ? userAgent() : rules(synthetic(5000, 500, 1));
+
+    compiled = "dfa".equals(matcher) ? compile(rules, false) : null;
+    index = "index".equals(matcher) ? new IndexMatcher.RuleIndex(rules) : null;
+    document = document(2000, small ? 10 : 500, 2);
+  }
+}
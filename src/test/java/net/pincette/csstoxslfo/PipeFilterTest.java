@@ -0,0 +1,165 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * @author Werner Donné
+ */
+class PipeFilterTest {
+  private static final int ELEMENTS = 2000;
+
+  private static void document(final PipeFilter pipe, final String name, final int elements)
+      throws SAXException {
+    pipe.startDocument();
+    elements(pipe, name, elements);
+    pipe.endDocument();
+  }
+
+  private static void elements(final PipeFilter pipe, final String name, final int elements)
+      throws SAXException {
+    final AttributesImpl atts = new AttributesImpl();
+
+    for (int i = 0; i < elements; ++i) {
+      atts.clear();
+      atts.addAttribute("", "n", "n", "CDATA", String.valueOf(i));
+      pipe.startElement("", name, name, atts);
+      pipe.characters(name.toCharArray(), 0, name.length());
+      pipe.endElement("", name, name);
+    }
+  }
+
+  private static void sleep() {
+    try {
+      Thread.sleep(500);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** The slow element is in the first batch, which the other thread is replaying. */
+  @Test
+  void abandonWaitsForTheOtherThread() throws Exception {
+    final CountDownLatch entered = new CountDownLatch(1);
+    final AtomicBoolean left = new AtomicBoolean();
+    final Recorder recorder =
+        new Recorder() {
+          @Override
+          public void startElement(
+              final String uri, final String localName, final String qName, final Attributes atts)
+              throws SAXException {
+            if (localName.equals("slow")) {
+              entered.countDown();
+              sleep();
+              left.set(true);
+            }
+
+            super.startElement(uri, localName, qName, atts);
+          }
+        };
+    final PipeFilter pipe = new PipeFilter();
+
+    pipe.setContentHandler(recorder);
+    pipe.startDocument();
+    elements(pipe, "slow", 1);
+    elements(pipe, "fast", 200);
+    assertTrue(entered.await(10, SECONDS));
+    assertTrue(pipe.abandon());
+    assertTrue(left.get());
+
+    final int before = recorder.events.size();
+
+    document(pipe, "next", 3);
+    assertEquals(before + 11, recorder.events.size());
+    assertEquals("startDocument", recorder.events.get(before));
+    assertEquals("endDocument", recorder.events.get(before + 10));
+  }
+
+  @Test
+  void failureOfTheOtherThread() {
+    final PipeFilter pipe = new PipeFilter();
+
+    pipe.setContentHandler(
+        new DefaultHandler() {
+          @Override
+          public void endElement(final String uri, final String localName, final String qName)
+              throws SAXException {
+            throw new SAXException("failed");
+          }
+        });
+
+    final SAXException e = assertThrows(SAXException.class, () -> document(pipe, "p", ELEMENTS));
+
+    assertEquals("failed", e.getMessage());
+  }
+
+  @Test
+  void sameEventsInOrder() throws SAXException {
+    final Recorder direct = new Recorder();
+    final Recorder piped = new Recorder();
+    final PipeFilter pipe = new PipeFilter();
+
+    pipe.setContentHandler(piped);
+
+    for (int i = 0; i < 2; ++i) {
+      direct.startDocument();
+
+      for (int j = 0; j < ELEMENTS; ++j) {
+        final AttributesImpl atts = new AttributesImpl();
+
+        atts.addAttribute("", "n", "n", "CDATA", String.valueOf(j));
+        direct.startElement("", "p", "p", atts);
+        direct.characters("p".toCharArray(), 0, 1);
+        direct.endElement("", "p", "p");
+      }
+
+      direct.endDocument();
+      document(pipe, "p", ELEMENTS);
+    }
+
+    assertEquals(direct.events, piped.events);
+  }
+
+  private static class Recorder extends DefaultHandler {
+    private final List<String> events = new ArrayList<>();
+
+    @Override
+    public void characters(final char[] ch, final int start, final int length) {
+      events.add("characters " + new String(ch, start, length));
+    }
+
+    @Override
+    public void endDocument() {
+      events.add("endDocument");
+    }
+
+    @Override
+    public void endElement(final String uri, final String localName, final String qName) {
+      events.add("endElement " + qName);
+    }
+
+    @Override
+    public void startDocument() {
+      events.add("startDocument");
+    }
+
+    @Override
+    public void startElement(
+        final String uri, final String localName, final String qName, final Attributes atts)
+        throws SAXException {
+      events.add("startElement " + qName + " " + atts.getValue("n"));
+    }
+  }
+}
@@ -0,0 +1,193 @@
+package net.pincette.csstoxslfo;
+
+import static java.util.Objects.requireNonNull;
+import static net.pincette.csstoxslfo.Constants.XHTML;
+import static net.pincette.csstoxslfo.Util.getSacParser;
+
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import net.pincette.css.sac.InputSource;
+import net.pincette.css.sac.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * Style sheets and documents for comparing the matchers. The small style sheet is the user agent
+ * style sheet. The large one is generated, with a mix of class, ID, attribute, child, descendant
+ * and sibling selectors. The documents are generated as well. Everything that is generated
+ * depends only on the seed.
+ *
+ * @author Werner Donné
+ */
+class StyleSheets {
+  private static final String[] NAMES = {
+    "div", "p", "ul", "li", "h1", "span", "table", "tr", "td", "a", "em", "section"
+  };
+
+  private StyleSheets() {}
+
+  private static Attributes attributes(final Random random, final int classes) {
+    final AttributesImpl result = new AttributesImpl();
+
+    if (random.nextInt(3) > 0) {
+      final StringBuilder value = new StringBuilder("c" + random.nextInt(classes));
+
+      if (random.nextBoolean()) {
+        value.append(' ').append("c").append(random.nextInt(classes));
+      }
+
+      result.addAttribute("", "class", "class", "CDATA", value.toString());
+    }
+
+    if (random.nextInt(10) == 0) {
+      result.addAttribute("", "id", "id", "ID", "id" + random.nextInt(classes * 2));
+    }
+
+    if (random.nextInt(10) == 0) {
+      result.addAttribute("", "title", "title", "CDATA", "t" + random.nextInt(50));
+    }
+
+    return result;
+  }
+
+  /** Builds the DFA of the rules. */
+  static Compiled compile(final List<Rule> rules, final boolean lazy) {
+    final Compiled compiled = new Compiled(lazy, 10000, false);
+
+    rules.forEach(compiled::addRule);
+    compiled.generateDFA();
+
+    return compiled;
+  }
+
+  /**
+   * Generates a document with about <code>elements</code> elements. An element is an array with
+   * the local name and the attributes. The end of an element is <code>null</code>.
+   */
+  static List<Object[]> document(final int elements, final int classes, final long seed) {
+    final Random random = new Random(seed);
+    final List<Object[]> result = new ArrayList<>();
+    int count = 0;
+
+    while (count < elements) {
+      count += element(random, classes, 0, result);
+    }
+
+    return result;
+  }
+
+  private static int element(
+      final Random random, final int classes, final int depth, final List<Object[]> result) {
+    int count = 1;
+
+    result.add(new Object[] {NAMES[random.nextInt(NAMES.length)], attributes(random, classes)});
+
+    if (depth < 6) {
+      for (int i = random.nextInt(5); i > 0; --i) {
+        count += element(random, classes, depth + 1, result);
+      }
+    }
+
+    result.add(null);
+
+    return count;
+  }
+
+  /**
+   * Sends the document through the matcher and gives it to <code>matched</code> after every start
+   * tag.
+   */
+  static void match(
+      final StyleMatcher matcher,
+      final List<Object[]> document,
+      final Consumer<StyleMatcher> matched)
+      throws SAXException {
+    final List<String> open = new ArrayList<>();
+
+    matcher.startDocument();
+    matcher.startElement(XHTML, "html", "html", new AttributesImpl());
+    matched.accept(matcher);
+
+    for (final Object[] event : document) {
+      if (event != null) {
+        open.add((String) event[0]);
+        matcher.startElement(XHTML, (String) event[0], (String) event[0], (Attributes) event[1]);
+        matched.accept(matcher);
+      } else {
+        final String name = open.remove(open.size() - 1);
+
+        matcher.endElement(XHTML, name, name);
+      }
+    }
+
+    matcher.endElement(XHTML, "html", "html");
+    matcher.endDocument();
+  }
+
+  private static List<Rule> parse(
+      final InputSource source, final URL baseUrl, final int startPosition) throws Exception {
+    final List<Rule> result = new ArrayList<>();
+    final Parser parser = getSacParser();
+
+    parser.setDocumentHandler(
+        new RuleCollector(result::add, new HashMap<>(), baseUrl, false, startPosition, 0));
+    parser.parseStyleSheet(source);
+
+    return result;
+  }
+
+  /** Parses a style sheet. */
+  static List<Rule> rules(final String css) throws Exception {
+    return rules(css, 0);
+  }
+
+  /** Parses a style sheet that comes after others. Its rule positions start at the given one. */
+  static List<Rule> rules(final String css, final int startPosition) throws Exception {
+    return parse(new InputSource(new StringReader(css)), null, startPosition);
+  }
+
+  /**
+   * Generates a style sheet with <code>count</code> rules. The classes go from <code>c0</code> to
+   * <code>c(classes - 1)</code>.
+   */
+  static String synthetic(final int count, final int classes, final long seed) {
+    final Random random = new Random(seed);
+    final StringBuilder builder = new StringBuilder("@namespace url(" + XHTML + ");\n");
+
+    for (int i = 0; i < count; ++i) {
+      final String name = NAMES[random.nextInt(NAMES.length)];
+      final String c = "c" + random.nextInt(classes);
+      final String selector =
+          switch (i % 7) {
+            case 0 -> "." + c;
+            case 1 -> "#id" + random.nextInt(classes * 2);
+            case 2 -> "div." + c + " " + name;
+            case 3 -> "ul > " + name + "." + c;
+            case 4 -> "h1 + " + name + "." + c;
+            case 5 -> name + "[title=\"t" + random.nextInt(50) + "\"]";
+            default -> name + "." + c + " ." + "c" + random.nextInt(classes);
+          };
+
+      builder.append(selector).append(" { margin-left: ").append(i).append("px }\n");
+    }
+
+    return builder.toString();
+  }
+
+  /** Parses the user agent style sheet with its imports. */
+  static List<Rule> userAgent() throws Exception {
+    final URL url =
+        requireNonNull(StyleSheets.class.getResource("/net/pincette/csstoxslfo/style/ua.css"));
+    final InputSource source = new InputSource();
+
+    source.setURI(url.toString());
+
+    return parse(source, url, 0);
+  }
+}
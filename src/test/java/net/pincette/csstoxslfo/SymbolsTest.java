@@ -0,0 +1,62 @@
+package net.pincette.csstoxslfo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author Werner Donné
+ */
+class SymbolsTest {
+  private static final String XHTML = "http://www.w3.org/1999/xhtml";
+
+  @Test
+  void childDoesNotGrowParent() {
+    final Symbols parent = new Symbols();
+    final int p = parent.id(XHTML + "|p");
+    final Symbols child = new Symbols(parent);
+    final int div = child.id(XHTML + "|div");
+
+    assertEquals(p, child.id(XHTML + "|p"));
+    assertEquals(-1, parent.find(XHTML + "|div"));
+    assertEquals(XHTML + "|div", child.name(div));
+    assertEquals(XHTML + "|p", child.name(p));
+  }
+
+  @Test
+  void elementEvents() {
+    final Symbols symbols = new Symbols();
+    final int name = symbols.id(XHTML + "|p");
+    final int any = symbols.id(Compiled.ANY_ELEMENT);
+
+    assertArrayEquals(new int[] {name, any}, symbols.elementEvents(XHTML, "p"));
+    assertArrayEquals(new int[] {any}, symbols.elementEvents(XHTML, "div"));
+  }
+
+  @Test
+  void laterParentSymbolsNotVisible() {
+    final Symbols parent = new Symbols();
+    final Symbols child = new Symbols(parent);
+    final int div = child.id(XHTML + "|div");
+
+    parent.id(XHTML + "|span");
+    assertEquals(-1, child.find(XHTML + "|span"));
+    assertEquals(XHTML + "|div", child.name(div));
+    assertNotEquals(div, child.id(XHTML + "|span"));
+  }
+
+  @Test
+  void siblingsAreIndependent() {
+    final Symbols parent = new Symbols();
+
+    parent.id(XHTML + "|p");
+
+    final Symbols first = new Symbols(parent);
+    final Symbols second = new Symbols(parent);
+
+    first.id(XHTML + "|div");
+    assertEquals(-1, second.find(XHTML + "|div"));
+  }
+}
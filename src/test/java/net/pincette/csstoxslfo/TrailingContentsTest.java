@@ -0,0 +1,156 @@
+package net.pincette.csstoxslfo;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.IntStream.range;
+import static javax.xml.xpath.XPathConstants.NODE;
+import static javax.xml.xpath.XPathConstants.NODESET;
+import static net.pincette.csstoxslfo.Constants.CSS;
+import static net.pincette.csstoxslfo.Constants.XSLFO;
+import static net.pincette.csstoxslfo.Conversions.document;
+import static net.pincette.csstoxslfo.Conversions.fresh;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * The string-set and bookmark-label values that refer to the contents of an element are only known
+ * at its end. These tests check where the results land in the XSL-FO output.
+ *
+ * @author Werner Donné
+ */
+class TrailingContentsTest {
+  private static final XPath XPATH = xpath();
+
+  private static Node node(final Node context, final String expression) throws Exception {
+    return (Node) XPATH.evaluate(expression, context, NODE);
+  }
+
+  private static List<Node> nodes(final Node context, final String expression) throws Exception {
+    final NodeList list = (NodeList) XPATH.evaluate(expression, context, NODESET);
+
+    return range(0, list.getLength()).mapToObj(list::item).toList();
+  }
+
+  private static Document parse(final String xml) throws Exception {
+    final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+    factory.setNamespaceAware(true);
+
+    return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(UTF_8)));
+  }
+
+  private static Document toFO(final String style, final String body) throws Exception {
+    final Document result = parse(fresh(new Configuration(), document(style, body)));
+
+    assertEquals(List.of(), nodes(result, "//css:*"));
+
+    return result;
+  }
+
+  private static XPath xpath() {
+    final XPath result = XPathFactory.newInstance().newXPath();
+
+    result.setNamespaceContext(
+        new NamespaceContext() {
+          @Override
+          public String getNamespaceURI(final String prefix) {
+            return "css".equals(prefix) ? CSS : XSLFO;
+          }
+
+          @Override
+          public String getPrefix(final String namespaceURI) {
+            return null;
+          }
+
+          @Override
+          public Iterator<String> getPrefixes(final String namespaceURI) {
+            return null;
+          }
+        });
+
+    return result;
+  }
+
+  @Test
+  void bookmarkLabelFromContents() throws Exception {
+    final Document fo =
+        toFO(
+            "h1 { bookmark-label: content(); bookmark-level: 1 }"
+                + "h2 { bookmark-label: content(); bookmark-level: 2 }",
+            "<h1 id=\"a\">One <em>two</em></h1><h2 id=\"b\">Three</h2><p>Text</p>"
+                + "<h1 id=\"c\">Four</h1>");
+
+    assertEquals(
+        List.of("One two", "Four"),
+        nodes(fo, "//fo:bookmark-tree/fo:bookmark/fo:bookmark-title").stream()
+            .map(Node::getTextContent)
+            .toList());
+    assertEquals(
+        "Three",
+        node(fo, "//fo:bookmark[@internal-destination='a']/fo:bookmark/fo:bookmark-title")
+            .getTextContent());
+  }
+
+  @Test
+  void bookmarkLabelWithoutContents() throws Exception {
+    final Document fo =
+        toFO(
+            "h1 { bookmark-label: \"Fixed\"; bookmark-level: 1 }",
+            "<h1 id=\"a\">One</h1><p>Text</p>");
+
+    assertEquals(
+        "Fixed",
+        node(fo, "//fo:bookmark[@internal-destination='a']/fo:bookmark-title").getTextContent());
+  }
+
+  @Test
+  void stringSetFromContents() throws Exception {
+    final Document fo =
+        toFO("h1 { string-set: chapter content() }", "<h1>One <em>two</em></h1><p>Text</p>");
+    final Node marker = node(fo, "//fo:marker[@marker-class-name='string-chapter']");
+
+    assertNotNull(marker);
+    assertEquals("One two", marker.getTextContent().trim());
+    // The marker is the initial child of an inline at the end of the element.
+    assertEquals("inline", marker.getParentNode().getLocalName());
+    assertEquals(List.of(), nodes(marker, "preceding-sibling::node()"));
+    assertEquals(List.of(), nodes(marker, "../following-sibling::node()"));
+    assertNotNull(node(marker, "../preceding-sibling::node()"));
+  }
+
+  @Test
+  void stringSetInTableRow() throws Exception {
+    final Document fo =
+        toFO(
+            "tr { string-set: row content() }",
+            "<table><tr><td>1</td><td>2</td></tr><tr><td>3</td><td>4</td></tr></table>"
+                + "<p>Text</p>");
+
+    assertEquals(2, nodes(fo, "//fo:marker[@marker-class-name='string-row']").size());
+    assertEquals(List.of(), nodes(fo, "//fo:table-row/fo:inline | //fo:table-body/fo:inline"));
+    assertEquals(List.of(), nodes(fo, "//fo:marker[preceding-sibling::*]"));
+  }
+
+  @Test
+  void stringSetWithoutContents() throws Exception {
+    final Document fo = toFO("h1 { string-set: chapter \"Fixed\" }", "<h1>One</h1><p>Text</p>");
+    final Node marker = node(fo, "//fo:marker[@marker-class-name='string-chapter']");
+
+    assertNotNull(marker);
+    assertEquals("Fixed", marker.getTextContent().trim());
+    // The value is known at the start tag, so the marker is the initial child of the block.
+    assertEquals("block", marker.getParentNode().getLocalName());
+    assertEquals(List.of(), nodes(marker, "preceding-sibling::node()"));
+  }
+}
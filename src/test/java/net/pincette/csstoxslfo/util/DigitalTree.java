@@ -5,9 +5,12 @@ import java.util.HashSet;
 import java.util.Set;
 
 /**
+ * The map with string keys that held the transitions of the DFA states before {@link IntMap}. It is
+ * kept here for {@link TransitionMapMemory}.
+ *
  * @author Werner Donné
  */
-public class DigitalTree<T> {
+class DigitalTree<T> {
   private static final int BITS = 8;
   private static final int MASK = (0x1 << BITS) - 1;
   private static final int SIZE = (0x1 << BITS);
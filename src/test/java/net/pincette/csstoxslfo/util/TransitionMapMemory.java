@@ -0,0 +1,112 @@
+package net.pincette.csstoxslfo.util;
+
+import static java.lang.System.gc;
+import static java.lang.System.out;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the retained heap of the transition maps of a DFA state. The old {@link DigitalTree} is
+ * keyed by event names of the form <code>namespace|name</code>, <code>*|name</code> and <code>
+ * namespace|*</code>. The frozen {@link IntMap} is keyed by the symbols of those names. For every
+ * number of transitions many maps are kept alive and the difference of the used heap after garbage
+ * collection is divided by their number. Run it with <code>java -cp
+ * target/classes:target/test-classes net.pincette.csstoxslfo.util.TransitionMapMemory</code>.
+ *
+ * @author Werner Donné
+ */
+class TransitionMapMemory {
+  private static final String[] NAMES =
+      ("a abbr acronym address area b base bdo big blockquote body br button caption cite code "
+              + "col colgroup dd del dfn div dl dt em fieldset form h1 h2 h3 h4 h5 h6 head hr html "
+              + "i iframe img input ins kbd label legend li link map meta noscript object ol "
+              + "optgroup option p param pre q samp script select small span strong style sub sup "
+              + "table tbody td textarea tfoot th thead title tr tt ul var")
+          .split(" ");
+  private static final String NAMESPACE = "http://www.w3.org/1999/xhtml";
+  private static final int[] SIZES = {1, 2, 4, 8, 16, 64};
+  private static final Object VALUE = new Object();
+
+  private TransitionMapMemory() {}
+
+  private static Object digitalTree(final int offset, final int size) {
+    final DigitalTree<Object> tree = new DigitalTree<>();
+
+    for (int i = 0; i < size; ++i) {
+      tree.put(event(key(offset, i)), VALUE);
+    }
+
+    return tree;
+  }
+
+  private static String event(final int key) {
+    final String name = NAMES[key % NAMES.length];
+
+    return switch ((key / NAMES.length) % 3) {
+      case 0 -> NAMESPACE + "|" + name;
+      case 1 -> "*|" + name;
+      default -> NAMESPACE + "|*";
+    };
+  }
+
+  private static Object intMap(final int offset, final int size) {
+    final IntMap<Object> map = new IntMap<>();
+
+    for (int i = 0; i < size; ++i) {
+      map.put(key(offset, i) % (NAMES.length * 3), VALUE);
+    }
+
+    map.freeze();
+
+    return map;
+  }
+
+  /** The keys of a map are spread, so the maps don't all have the same ones. */
+  private static int key(final int offset, final int index) {
+    return offset + index * 7;
+  }
+
+  public static void main(final String[] args) throws InterruptedException {
+    out.println("transitions\tDigitalTree (bytes)\tIntMap frozen (bytes)");
+
+    for (final int size : SIZES) {
+      final int count = size <= 8 ? 2000 : 300;
+
+      out.println(
+          size
+              + "\t"
+              + retained(count, i -> digitalTree(i, size))
+              + "\t"
+              + retained(count, i -> intMap(i, size)));
+    }
+  }
+
+  private static long retained(final int count, final IntFunction<Object> create)
+      throws InterruptedException {
+    final List<Object> keep = new ArrayList<>(count);
+    final long before = used();
+
+    for (int i = 0; i < count; ++i) {
+      keep.add(create.apply(i));
+    }
+
+    final long result = (used() - before) / keep.size();
+
+    keep.clear();
+
+    return result;
+  }
+
+  private static long used() throws InterruptedException {
+    final Runtime runtime = Runtime.getRuntime();
+
+    for (int i = 0; i < 5; ++i) {
+      gc();
+      Thread.sleep(50);
+    }
+
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}